@@ -0,0 +1,84 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes random edits to a source file through an IncrementalParser, checks after each one that
+ * it reports what a full parse of the edited text would, and compares how long the two take.
+ *
+ * The edits insert blank and comment lines, which move everything below them, and insert and
+ * later remove declarations that don't parse. Like ScanBenchmark it lives in the bench source
+ * root, outside of src.
+ *
+ * Usage: java com.emiphil.lox.EditBenchmark <script> [edits]
+ */
+public class EditBenchmark {
+    private static final String BROKEN = "var broken = ;\n";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: edit_benchmark <script> [edits]");
+            System.exit(64);
+        }
+
+        String source = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Random random = new Random(42);
+
+        IncrementalParser parser = new IncrementalParser(source, new Resolutions());
+        // Where each broken declaration we inserted still is.
+        List<Integer> broken = new ArrayList<>();
+        long incremental = 0;
+        long full = 0;
+
+        for (int i = 0; i < edits; i++) {
+            String text = parser.source();
+            long start = System.nanoTime();
+            int choice = random.nextInt(3);
+            if (choice == 0 && !broken.isEmpty()) {
+                int offset = broken.remove(broken.size() - 1);
+                parser.edit(offset, BROKEN.length(), "");
+                shift(broken, offset, -BROKEN.length());
+            } else {
+                int offset = lineStart(text, random.nextInt(text.length() + 1));
+                String inserted = choice == 1 ? BROKEN : random.nextBoolean() ? "\n" : "// edit " + i + "\n";
+                parser.edit(offset, 0, inserted);
+                shift(broken, offset, inserted.length());
+                if (inserted == BROKEN) broken.add(offset);
+            }
+            incremental += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            IncrementalParser expected = new IncrementalParser(parser.source(), new Resolutions());
+            full += System.nanoTime() - start;
+
+            if (!expected.errors().equals(parser.errors()) ||
+                    expected.statements().size() != parser.statements().size()) {
+                System.out.println("Edit " + i + " went wrong.");
+                System.out.println("  incremental: " + parser.errors());
+                System.out.println("  full parse:  " + expected.errors());
+                System.exit(70);
+            }
+        }
+
+        System.out.printf("%d edits, all matching full parses%n", edits);
+        System.out.printf("incremental %8.1f us per edit%n", incremental / 1e3 / edits);
+        System.out.printf("full parse  %8.1f us per edit%n", full / 1e3 / edits);
+    }
+
+    // The start of the line holding offset, so an edit never lands inside a token.
+    private static int lineStart(String text, int offset) {
+        return text.lastIndexOf('\n', offset - 1) + 1;
+    }
+
+    // Moves the offsets at or after an edit by how much it changed the length.
+    private static void shift(List<Integer> offsets, int at, int delta) {
+        offsets.replaceAll(offset -> offset >= at ? offset + delta : offset);
+    }
+}
@@ -0,0 +1,58 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.function.IntSupplier;
+
+/**
+ * Compares the throughput of Scanner and ByteScanner on a source file.
+ *
+ * It lives in the bench source root, in the interpreter's package so it can reach the scanners,
+ * but outside of src so it doesn't ship with it. Compile it together with src.
+ *
+ * Usage: java com.emiphil.lox.ScanBenchmark <script> [iterations]
+ */
+public class ScanBenchmark {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: scan_benchmark <script> [iterations]");
+            System.exit(64);
+        }
+
+        byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // Warm both paths up so the JIT has compiled them before we time anything.
+        for (int i = 0; i < 5; i++) {
+            scanChars(bytes);
+            scanBytes(bytes);
+        }
+
+        report("Scanner", bytes.length, iterations, () -> scanChars(bytes));
+        report("ByteScanner", bytes.length, iterations, () -> scanBytes(bytes));
+    }
+
+    private static int scanChars(byte[] bytes) {
+        // Decoding is part of what the char scanner costs, so it goes inside the timing.
+        String source = new String(bytes, StandardCharsets.UTF_8);
+        return new Scanner(source, new SymbolTable()).scanTokens().size();
+    }
+
+    private static int scanBytes(byte[] bytes) {
+        return new ByteScanner(bytes, new SymbolTable()).scanTokens().size();
+    }
+
+    private static void report(String name, int length, int iterations, IntSupplier scan) {
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            tokens += scan.getAsInt();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        double megabytes = (double) length * iterations / (1024 * 1024);
+        System.out.printf("%-12s %10.1f MB/s  (%d tokens per pass)%n", name, megabytes / seconds, tokens / iterations);
+    }
+}
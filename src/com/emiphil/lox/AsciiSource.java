@@ -0,0 +1,34 @@
+package com.emiphil.lox;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lets tokens point into an ASCII byte array the same way they point into a String.
+ */
+class AsciiSource implements CharSequence {
+    private final byte[] bytes;
+
+    AsciiSource(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int length() {
+        return bytes.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) bytes[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,627 @@
+package com.emiphil.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps resolved programs on disk as .loxc files so an unchanged script can skip the Scanner,
+ * Parser and Resolver altogether.
+ *
+ * Files are named after a hash of the source and VERSION, and hold a string pool followed by
+ * the statements with the scope depth of every resolved variable. Whenever the directory grows
+ * past its limit, the least recently used files are deleted.
+ */
+class AstCache {
+    // Bump whenever the AST, the resolver or this format changes.
+    private static final int VERSION = 3;
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    private static final byte NULL = -1;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    AstCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(byte[] source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((VERSION + ":").getBytes(StandardCharsets.UTF_8));
+            digest.update(source);
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException error) {
+            // Every JVM is required to ship SHA-256.
+            throw new IllegalStateException(error);
+        }
+    }
+
+    List<Stmt> load(String key, Resolutions resolutions) {
+        Path file = directory.resolve(key + ".loxc");
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            List<Stmt> statements = new Reader(buffer, resolutions).read();
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return statements;
+        } catch (IOException | RuntimeException error) {
+            // A truncated or stale file is just a miss.
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    void store(String key, List<Stmt> statements, Resolutions resolutions) {
+        try {
+            byte[] bytes = new Writer(resolutions).write(statements);
+
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, bytes);
+            Files.move(temporary, directory.resolve(key + ".loxc"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            evict();
+        } catch (IOException | UncheckedIOException error) {
+            // The cache is only ever an optimization.
+        }
+    }
+
+    private void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.loxc")) {
+            for (Path file : stream) {
+                files.add(file);
+                total += Files.size(file);
+            }
+        }
+        if (total <= maxBytes) return;
+
+        Map<Path, FileTime> used = new HashMap<>();
+        for (Path file : files) {
+            used.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort(Comparator.comparing(used::get));
+
+        for (Path file : files) {
+            if (total <= maxBytes) break;
+            total -= Files.size(file);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Resolutions resolutions;
+        private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(tree);
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> pool = new ArrayList<>();
+
+        Writer(Resolutions resolutions) {
+            this.resolutions = resolutions;
+        }
+
+        byte[] write(List<Stmt> statements) throws IOException {
+            writeStatements(statements);
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream(tree.size() + 1024);
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(pool.size());
+            for (String string : pool) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(bytes.length);
+                header.write(bytes);
+            }
+            tree.writeTo(header);
+            header.flush();
+            return file.toByteArray();
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = pool.size();
+                strings.put(string, index);
+                pool.add(string);
+            }
+            writeInt(index);
+        }
+
+        private void writeToken(Token token) {
+            writeByte(token.type.ordinal());
+            writeString(token.lexeme());
+            writeInt(token.line);
+        }
+
+        private void writeDepth(Expr expr) {
+            Integer depth = resolutions.depth(expr);
+            writeInt(depth == null ? -1 : depth);
+        }
+
+        private void writeLiteral(Object value) {
+            if (value == null) {
+                writeByte(0);
+            } else if (value instanceof Boolean) {
+                writeByte((boolean) value ? 1 : 2);
+            } else if (value instanceof Double) {
+                writeByte(3);
+                writeDouble((double) value);
+            } else {
+                writeByte(4);
+                writeString((String) value);
+            }
+        }
+
+        private void writeExpr(Expr expr) {
+            if (expr == null) {
+                writeByte(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void writeStatements(List<Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                writeStmt(statement);
+            }
+        }
+
+        private void writeFunction(Stmt.Function function) {
+            writeToken(function.name);
+            writeInt(function.params.size());
+            for (Token param : function.params) {
+                writeToken(param);
+            }
+            writeStatements(function.body);
+            writeInt(function.slots);
+        }
+
+        @Override
+        public Void visitStatementExpr(Expr.Statement expr) {
+            writeByte(0);
+            writeStmt(expr.statement);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(1);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(2);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(3);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            writeInt(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                writeExpr(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(4);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(5);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(6);
+            writeLiteral(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(7);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(8);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(9);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(10);
+            writeToken(expr.keyword);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(11);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(12);
+            writeToken(expr.name);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(0);
+            writeStatements(stmt.statements);
+            writeInt(stmt.slots);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(1);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            writeInt(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) {
+                writeFunction(method);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(2);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(3);
+            writeFunction(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(4);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(5);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(6);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(7);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(8);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            writeByte(9);
+            writeToken(stmt.keyword);
+            writeToken(stmt.path);
+            writeString((String) stmt.path.literal);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private static final TokenType[] types = TokenType.values();
+
+        private final ByteBuffer in;
+        private final Resolutions resolutions;
+        private String[] pool;
+
+        Reader(ByteBuffer in, Resolutions resolutions) {
+            this.in = in;
+            this.resolutions = resolutions;
+        }
+
+        List<Stmt> read() {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IllegalStateException("Not a cached program.");
+            }
+
+            pool = new String[in.getInt()];
+            for (int i = 0; i < pool.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                pool[i] = Interner.intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            return readStatements();
+        }
+
+        private Token readToken() {
+            TokenType type = types[in.get()];
+            String lexeme = pool[in.getInt()];
+            return new Token(type, lexeme, null, in.getInt());
+        }
+
+        private <E extends Expr> E resolved(E expr) {
+            int depth = in.getInt();
+            if (depth >= 0) resolutions.resolve(expr, depth);
+            return expr;
+        }
+
+        private Object readLiteral() {
+            switch (in.get()) {
+                case 0:
+                    return null;
+                case 1:
+                    return true;
+                case 2:
+                    return false;
+                case 3:
+                    return in.getDouble();
+                default:
+                    return pool[in.getInt()];
+            }
+        }
+
+        private List<Stmt> readStatements() {
+            int size = in.getInt();
+            List<Stmt> statements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private Stmt.Function readFunction() {
+            Token name = readToken();
+            int arity = in.getInt();
+            List<Token> params = new ArrayList<>(arity);
+            for (int i = 0; i < arity; i++) {
+                params.add(readToken());
+            }
+            Stmt.Function function = new Stmt.Function(name, params, readStatements());
+            function.slots = in.getInt();
+            return function;
+        }
+
+        private Expr readExpr() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case 0:
+                    return new Expr.Statement(readStmt());
+                case 1: {
+                    Token name = readToken();
+                    return resolved(new Expr.Assign(name, readExpr()));
+                }
+                case 2: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Binary(left, operator, readExpr());
+                }
+                case 3: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int size = in.getInt();
+                    List<Expr> arguments = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        arguments.add(readExpr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case 4: {
+                    Expr object = readExpr();
+                    return new Expr.Get(object, readToken());
+                }
+                case 5:
+                    return new Expr.Grouping(readExpr());
+                case 6:
+                    return new Expr.Literal(readLiteral());
+                case 7: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Logical(left, operator, readExpr());
+                }
+                case 8: {
+                    Expr object = readExpr();
+                    Token name = readToken();
+                    return new Expr.Set(object, name, readExpr());
+                }
+                case 9: {
+                    Token keyword = readToken();
+                    return resolved(new Expr.Super(keyword, readToken()));
+                }
+                case 10:
+                    return resolved(new Expr.This(readToken()));
+                case 11: {
+                    Token operator = readToken();
+                    return new Expr.Unary(operator, readExpr());
+                }
+                case 12:
+                    return resolved(new Expr.Variable(readToken()));
+                default:
+                    throw new IllegalStateException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Stmt readStmt() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case 0: {
+                    Stmt.Block block = new Stmt.Block(readStatements());
+                    block.slots = in.getInt();
+                    return block;
+                }
+                case 1: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable) readExpr();
+                    int size = in.getInt();
+                    List<Stmt.Function> methods = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        methods.add(readFunction());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case 2:
+                    return new Stmt.Expression(readExpr());
+                case 3:
+                    return readFunction();
+                case 4: {
+                    Expr condition = readExpr();
+                    Stmt thenBranch = readStmt();
+                    return new Stmt.If(condition, thenBranch, readStmt());
+                }
+                case 5:
+                    return new Stmt.Print(readExpr());
+                case 6: {
+                    Token keyword = readToken();
+                    return new Stmt.Return(keyword, readExpr());
+                }
+                case 7: {
+                    Token name = readToken();
+                    return new Stmt.Var(name, readExpr());
+                }
+                case 8: {
+                    Expr condition = readExpr();
+                    return new Stmt.While(condition, readStmt());
+                }
+                case 9: {
+                    Token keyword = readToken();
+                    Token path = readToken();
+                    return new Stmt.Import(keyword, new Token(path.type, path.lexeme(), pool[in.getInt()], path.line));
+                }
+                default:
+                    throw new IllegalStateException("Unknown statement tag " + tag + ".");
+            }
+        }
+    }
+}
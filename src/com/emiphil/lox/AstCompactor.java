@@ -0,0 +1,269 @@
+package com.emiphil.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Rebuilds a resolved program so that it takes up as little of the heap as it can.
+ *
+ * Tokens are replaced with canonical ones that only carry type, interned lexeme and line, so
+ * equal tokens on the same line are shared and nothing points back into the source text any
+ * more. Literals with the same value, and variable and 'this' references that agree on name,
+ * line and resolved depth, are hash-consed into a single node. Lists are sized exactly.
+ *
+ * The tables behind the sharing only last for one call to compact(), so a compactor kept for a
+ * whole REPL session doesn't keep every program it has seen alive.
+ */
+class AstCompactor implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private static final class Key {
+        final Object kind;
+        final String lexeme;
+        final int line;
+        final Integer depth;
+
+        Key(Object kind, String lexeme, int line, Integer depth) {
+            this.kind = kind;
+            this.lexeme = lexeme;
+            this.line = line;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return kind == key.kind && line == key.line &&
+                    lexeme.equals(key.lexeme) && Objects.equals(depth, key.depth);
+        }
+
+        @Override
+        public int hashCode() {
+            return (kind.hashCode() * 31 + lexeme.hashCode()) * 31 + line;
+        }
+    }
+
+    private final Resolutions resolutions;
+    private final Map<Key, Token> tokens = new HashMap<>();
+    private final Map<Object, Expr.Literal> literals = new HashMap<>();
+    private final Map<Key, Expr> references = new HashMap<>();
+    private Expr.Literal nil = null;
+
+    AstCompactor(Resolutions resolutions) {
+        this.resolutions = resolutions;
+    }
+
+    List<Stmt> compact(List<Stmt> statements) {
+        try {
+            return compactAll(statements);
+        } finally {
+            tokens.clear();
+            literals.clear();
+            references.clear();
+            nil = null;
+        }
+    }
+
+    private List<Stmt> compactAll(List<Stmt> statements) {
+        // Bodies still waiting on a LazyBody are left alone rather than parsed just to shrink them.
+        if (statements instanceof LazyBody) return statements;
+
+        List<Stmt> compacted = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            compacted.add(compact(statement));
+        }
+        return compacted;
+    }
+
+    private Stmt compact(Stmt stmt) {
+        if (stmt == null) return null;
+        return stmt.accept(this);
+    }
+
+    private Expr compact(Expr expr) {
+        if (expr == null) return null;
+        return expr.accept(this);
+    }
+
+    private Token compact(Token token) {
+        String lexeme = Interner.intern(token.lexeme());
+        return tokens.computeIfAbsent(new Key(token.type, lexeme, token.line, null),
+                key -> new Token(token.type, lexeme, null, token.line));
+    }
+
+    private List<Token> compactTokens(List<Token> tokens) {
+        List<Token> compacted = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            compacted.add(compact(token));
+        }
+        return compacted;
+    }
+
+    // Moves the resolution of the old node over to its replacement.
+    private <E extends Expr> E resolved(Expr original, E replacement) {
+        Integer depth = resolutions.depth(original);
+        if (depth != null && original != replacement) {
+            resolutions.unresolve(original);
+            resolutions.resolve(replacement, depth);
+        }
+        return replacement;
+    }
+
+    private Stmt.Function sized(Stmt.Function original, Stmt.Function replacement) {
+        replacement.slots = original.slots;
+        return replacement;
+    }
+
+    private Stmt.Block sized(Stmt.Block original, Stmt.Block replacement) {
+        replacement.slots = original.slots;
+        return replacement;
+    }
+
+    private Expr shared(Expr original, Token name, Expr replacement) {
+        Key key = new Key(original.getClass(), name.lexeme(), name.line, resolutions.depth(original));
+        Expr canonical = references.get(key);
+        if (canonical == null) {
+            references.put(key, replacement);
+            return resolved(original, replacement);
+        }
+
+        resolutions.unresolve(original);
+        return canonical;
+    }
+
+    private Stmt.Function compactFunction(Stmt.Function function) {
+        return sized(function, new Stmt.Function(compact(function.name), compactTokens(function.params), compactAll(function.body)));
+    }
+
+    @Override
+    public Expr visitStatementExpr(Expr.Statement expr) {
+        return new Expr.Statement(compact(expr.statement));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return resolved(expr, new Expr.Assign(compact(expr.name), compact(expr.value)));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(compact(expr.left), compact(expr.operator), compact(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(compact(argument));
+        }
+        return new Expr.Call(compact(expr.callee), compact(expr.paren), arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(compact(expr.object), compact(expr.name));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(compact(expr.expression));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            if (nil == null) nil = expr;
+            return nil;
+        }
+        return literals.computeIfAbsent(expr.value, value -> expr);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(compact(expr.left), compact(expr.operator), compact(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(compact(expr.object), compact(expr.name), compact(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return resolved(expr, new Expr.Super(compact(expr.keyword), compact(expr.method)));
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        Token keyword = compact(expr.keyword);
+        return shared(expr, keyword, new Expr.This(keyword));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(compact(expr.operator), compact(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        Token name = compact(expr.name);
+        return shared(expr, name, new Expr.Variable(name));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return sized(stmt, new Stmt.Block(compactAll(stmt.statements)));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(compactFunction(method));
+        }
+        return new Stmt.Class(compact(stmt.name), (Expr.Variable) compact(stmt.superclass), methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(compact(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return compactFunction(stmt);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        return new Stmt.If(compact(stmt.condition), compact(stmt.thenBranch), compact(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        // The interpreter linked the module to this very node.
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(compact(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(compact(stmt.keyword), compact(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(compact(stmt.name), compact(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return new Stmt.While(compact(stmt.condition), compact(stmt.body));
+    }
+}
@@ -0,0 +1,201 @@
+package com.emiphil.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies resolved statements with every token moved some number of lines, for code whose text
+ * has moved in the file without changing.
+ *
+ * Tokens and nodes are never changed in place, since an AstCompactor table, a cached AST or the
+ * interpreter may still hold them. Resolutions move over to the copies, which are collected in
+ * resolved() like a Resolver would.
+ */
+class AstShifter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Resolutions resolutions;
+    private final int lines;
+    private final List<Expr> resolved = new ArrayList<>();
+
+    AstShifter(Resolutions resolutions, int lines) {
+        this.resolutions = resolutions;
+        this.lines = lines;
+    }
+
+    List<Expr> resolved() {
+        return resolved;
+    }
+
+    List<Stmt> shift(List<Stmt> statements) {
+        List<Stmt> shifted = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            shifted.add(shift(statement));
+        }
+        return shifted;
+    }
+
+    private Stmt shift(Stmt stmt) {
+        if (stmt == null) return null;
+        return stmt.accept(this);
+    }
+
+    private Expr shift(Expr expr) {
+        if (expr == null) return null;
+        return expr.accept(this);
+    }
+
+    private Token shift(Token token) {
+        return token.movedBy(lines);
+    }
+
+    private List<Token> shiftTokens(List<Token> tokens) {
+        List<Token> shifted = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            shifted.add(shift(token));
+        }
+        return shifted;
+    }
+
+    // Moves the resolution of the old node over to its copy.
+    private <E extends Expr> E resolved(Expr original, E copy) {
+        Integer depth = resolutions.depth(original);
+        if (depth != null) {
+            resolutions.unresolve(original);
+            resolutions.resolve(copy, depth);
+            resolved.add(copy);
+        }
+        return copy;
+    }
+
+    private Stmt.Function shiftFunction(Stmt.Function function) {
+        Stmt.Function copy = new Stmt.Function(shift(function.name), shiftTokens(function.params), shift(function.body));
+        copy.slots = function.slots;
+        return copy;
+    }
+
+    @Override
+    public Expr visitStatementExpr(Expr.Statement expr) {
+        return new Expr.Statement(shift(expr.statement));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return resolved(expr, new Expr.Assign(shift(expr.name), shift(expr.value)));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(shift(expr.left), shift(expr.operator), shift(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(shift(argument));
+        }
+        return new Expr.Call(shift(expr.callee), shift(expr.paren), arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(shift(expr.object), shift(expr.name));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(shift(expr.expression));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        // No tokens, so nothing to move.
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(shift(expr.left), shift(expr.operator), shift(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(shift(expr.object), shift(expr.name), shift(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return resolved(expr, new Expr.Super(shift(expr.keyword), shift(expr.method)));
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return resolved(expr, new Expr.This(shift(expr.keyword)));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(shift(expr.operator), shift(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return resolved(expr, new Expr.Variable(shift(expr.name)));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        Stmt.Block copy = new Stmt.Block(shift(stmt.statements));
+        copy.slots = stmt.slots;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(shiftFunction(method));
+        }
+        return new Stmt.Class(shift(stmt.name), (Expr.Variable) shift(stmt.superclass), methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(shift(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return shiftFunction(stmt);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        return new Stmt.If(shift(stmt.condition), shift(stmt.thenBranch), shift(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        // The interpreter may have linked the module to this very node.
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(shift(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(shift(stmt.keyword), shift(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(shift(stmt.name), shift(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return new Stmt.While(shift(stmt.condition), shift(stmt.body));
+    }
+}
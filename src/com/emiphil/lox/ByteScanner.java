@@ -0,0 +1,339 @@
+package com.emiphil.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.emiphil.lox.TokenType.*;
+
+/**
+ * A drop-in alternative to Scanner that works on the raw UTF-8 bytes of a file.
+ *
+ * Runs of whitespace, comment and string bodies and identifier characters are skipped eight
+ * bytes at a time by treating each long as a vector of bytes (SWAR). The tricks assume every
+ * byte is ASCII, so any other input is decoded and handed to the regular Scanner instead.
+ */
+class ByteScanner {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final byte[] bytes;
+    private final AsciiSource source;
+    private final SymbolTable symbols;
+    private final List<Token> tokens = new ArrayList<>();
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+
+    ByteScanner(byte[] bytes, SymbolTable symbols) {
+        this.bytes = bytes;
+        this.source = new AsciiSource(bytes);
+        this.symbols = symbols;
+    }
+
+    List<Token> scanTokens() {
+        if (!isAscii()) {
+            return new Scanner(new String(bytes, StandardCharsets.UTF_8), symbols).scanTokens();
+        }
+
+        while (!isAtEnd()) {
+            // We are at the beginning of the next lexeme.
+            start = current;
+            scanToken();
+        }
+
+        tokens.add(new Token(EOF, source, current, 0, "", null, line));
+        return tokens;
+    }
+
+    private void scanToken() {
+        char c = advance();
+        switch (c) {
+            case '(':
+                addToken(LEFT_PAREN);
+                break;
+            case ')':
+                addToken(RIGHT_PAREN);
+                break;
+            case '{':
+                addToken(LEFT_BRACE);
+                break;
+            case '}':
+                addToken(RIGHT_BRACE);
+                break;
+            case ',':
+                addToken(COMMA);
+                break;
+            case '.':
+                addToken(DOT);
+                break;
+            case '-':
+                addToken(MINUS);
+                break;
+            case '+':
+                addToken(PLUS);
+                break;
+            case ';':
+                addToken(SEMICOLON);
+                break;
+            case '*':
+                addToken(STAR);
+                break;
+            case '!':
+                addToken(match('=') ? BANG_EQUAL : BANG);
+                break;
+            case '=':
+                addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+                break;
+            case '<':
+                addToken(match('=') ? LESS_EQUAL : LESS);
+                break;
+            case '>':
+                addToken(match('=') ? GREATER_EQUAL : GREATER);
+                break;
+            case '/':
+                if (match('/')) {
+                    // A comment goes until the end of the line.
+                    skipTo('\n', '\n');
+                } else if (match('*')) {
+                    blockComment();
+                } else {
+                    addToken(SLASH);
+                }
+                break;
+            case '\n':
+                line++;
+                whitespace();
+                break;
+            case ' ':
+            case '\r':
+            case '\t':
+                whitespace();
+                break;
+            case '"':
+                string();
+                break;
+            default:
+                if (isDigit(c)) {
+                    number();
+                } else if (isAlpha(c)) {
+                    identifier();
+                } else {
+                    Lox.error(line, "Unexpected character.");
+                    break;
+                }
+        }
+    }
+
+    private void whitespace() {
+        while (current + 8 <= bytes.length) {
+            long word = (long) LONGS.get(bytes, current);
+            long newlines = equalTo(word, '\n');
+            long blank = equalTo(word, ' ') | equalTo(word, '\t') | equalTo(word, '\r') | newlines;
+            long stop = ~blank & HIGHS;
+            if (stop != 0) {
+                int run = Long.numberOfTrailingZeros(stop) >>> 3;
+                line += Long.bitCount(newlines & below(run));
+                current += run;
+                return;
+            }
+            line += Long.bitCount(newlines);
+            current += 8;
+        }
+
+        while (!isAtEnd()) {
+            char c = peek();
+            if (c == '\n') {
+                line++;
+            } else if (c != ' ' && c != '\r' && c != '\t') {
+                return;
+            }
+            current++;
+        }
+    }
+
+    private void blockComment() {
+        int level = 0;
+        for (;;) {
+            // Only '*' and '/' can open or close a comment, so jump straight to the next one.
+            skipTo('*', '/');
+            if (isAtEnd()) return;
+
+            if (isBlockCommentStart()) {
+                current += 2;
+                level++;
+            } else if (isBlockCommentEnd()) {
+                current += 2;
+                if (level == 0) {
+                    return;
+                }
+                level--;
+            } else {
+                current++;
+            }
+        }
+    }
+
+    private void identifier() {
+        while (current + 8 <= bytes.length) {
+            long word = (long) LONGS.get(bytes, current);
+            long alphaNumeric = inRange(word, 'a', 'z') | inRange(word, 'A', 'Z') |
+                    inRange(word, '0', '9') | equalTo(word, '_');
+            long stop = ~alphaNumeric & HIGHS;
+            if (stop != 0) {
+                current += Long.numberOfTrailingZeros(stop) >>> 3;
+                break;
+            }
+            current += 8;
+        }
+        while (isAlphaNumeric(peek())) advance();
+
+        SymbolTable.Symbol symbol = symbols.intern(bytes, start, current);
+        tokens.add(new Token(symbol.type, source, start, current - start, symbol.text, null, line));
+    }
+
+    private void number() {
+        long value = bytes[start] - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
+
+        // Look for a fractional part.
+        if (peek() == '.' && isDigit(peekNext())) {
+            // Consume the "."
+            advance();
+            while (isDigit(peek())) advance();
+        } else if (current - start <= 15) {
+            // Fifteen digits always fit in a double exactly.
+            addToken(NUMBER, (double) value);
+            return;
+        }
+
+        addToken(NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
+    }
+
+    private void string() {
+        skipTo('"', '"');
+
+        if (isAtEnd()) {
+            Lox.error(line, "Unterminated string.");
+            return;
+        }
+
+        // The closing ".
+        advance();
+
+        // Trim the surrounding quotes
+        String value = Interner.intern(new String(bytes, start + 1, current - start - 2, StandardCharsets.ISO_8859_1));
+        addToken(STRING, value);
+    }
+
+    // Moves to the next a or b (or the end), counting the lines we pass on the way.
+    private void skipTo(char a, char b) {
+        while (current + 8 <= bytes.length) {
+            long word = (long) LONGS.get(bytes, current);
+            long newlines = equalTo(word, '\n');
+            long found = equalTo(word, a) | equalTo(word, b);
+            if (found != 0) {
+                int run = Long.numberOfTrailingZeros(found) >>> 3;
+                line += Long.bitCount(newlines & below(run));
+                current += run;
+                return;
+            }
+            line += Long.bitCount(newlines);
+            current += 8;
+        }
+
+        while (!isAtEnd() && peek() != a && peek() != b) {
+            if (peek() == '\n') line++;
+            current++;
+        }
+    }
+
+    private boolean isAscii() {
+        long seen = 0;
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            seen |= (long) LONGS.get(bytes, i);
+        }
+        for (; i < bytes.length; i++) {
+            seen |= bytes[i];
+        }
+        return (seen & HIGHS) == 0;
+    }
+
+    // The high bit of each byte in word that equals c.
+    private static long equalTo(long word, char c) {
+        long x = word ^ (ONES * c);
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+
+    // The high bit of each byte in word between lo and hi. Only holds for ASCII words.
+    private static long inRange(long word, char lo, char hi) {
+        return (word + ONES * (0x80 - lo)) & ~(word + ONES * (0x7F - hi)) & HIGHS;
+    }
+
+    // Mask of the bytes before the given byte index.
+    private static long below(int bytes) {
+        return (1L << (bytes << 3)) - 1;
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (bytes[current] != expected) return false;
+        current++;
+        return true;
+    }
+
+    private char peek() {
+        if (isAtEnd()) return '\0';
+        return (char) bytes[current];
+    }
+
+    private char peekNext() {
+        if (current + 1 >= bytes.length) return '\0';
+        return (char) bytes[current + 1];
+    }
+
+    private boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '_';
+    }
+
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private boolean isBlockCommentStart() {
+        return peek() == '/' && peekNext() == '*';
+    }
+
+    private boolean isBlockCommentEnd() {
+        return peek() == '*' && peekNext() == '/';
+    }
+
+    private boolean isAtEnd() {
+        return current >= bytes.length;
+    }
+
+    private char advance() {
+        return (char) bytes[current++];
+    }
+
+    private void addToken(TokenType type) {
+        addToken(type, null);
+    }
+
+    private void addToken(TokenType type, Object literal) {
+        // The lexeme stays in the bytes until an error message needs it.
+        tokens.add(new Token(type, source, start, current - start, null, literal, line));
+    }
+}
@@ -5,22 +5,35 @@ import java.util.Map;
 
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
     private String latest = "";
+    // Bumped whenever a native is replaced, so calls that went straight to one can tell.
+    int generation = 0;
 
     Environment() {
-        enclosing = null;
+        this(null);
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, 0);
+    }
+
+    // Sizes the table for the given number of names, as counted by the Resolver. With none
+    // there is nothing to size for, and the default table is only made on the first define.
+    Environment(Environment enclosing, int slots) {
         this.enclosing = enclosing;
+        this.values = slots == 0 ? new HashMap<>() : new HashMap<>((int) Math.ceil(slots / 0.75));
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        put(name, value);
         latest = name;
     }
 
+    private void put(String name, Object value) {
+        if (values.put(name, value) instanceof LoxNative) generation++;
+    }
+
     Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; i++) //noinspection ConstantConditions
@@ -30,8 +43,8 @@ public class Environment {
 
     void assign(Token name, Object value) {
         // design decision: we do not allow implicit variable declarations
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        if (values.containsKey(name.lexeme())) {
+            put(name.lexeme(), value);
             return;
         }
 
@@ -40,11 +53,11 @@ public class Environment {
             return;
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).put(name.lexeme(), value);
     }
 
     Object get(String lexeme) {
@@ -58,13 +71,13 @@ public class Environment {
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        if (values.containsKey(name.lexeme())) {
+            return values.get(name.lexeme());
         }
 
         if (enclosing != null) return enclosing.get(name);
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
     }
 
     Object getAt(int distance, String name) {
@@ -83,6 +83,9 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        // Filled in after parsing, not by the parser.
+        Intrinsic intrinsic;
+        JavaInterop.Site site;
     }
 
     static class Get extends Expr {
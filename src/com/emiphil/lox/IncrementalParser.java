@@ -0,0 +1,288 @@
+package com.emiphil.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a source file parsed and resolved while it is being edited.
+ *
+ * The file is split into segments, one per top level declaration, each running from its first
+ * token up to the next one. Top level declarations resolve independently of each other, so an
+ * edit only has to re-scan, re-parse and re-resolve the segments it touches (plus the one
+ * before, which may have been peeking at the edited text for an 'else'); every other segment
+ * keeps its statements and their resolutions as they are. If the new text might read
+ * differently with what follows it (an open comment or string, a token running up against the
+ * next declaration, a last declaration with errors) we widen the range, in the worst case to
+ * the end of the file, so the result always matches a full parse.
+ *
+ * An edit that adds or removes lines moves the segments below it rather than re-parsing them.
+ * Their errors are renumbered at once, but their statements are only copied onto the new lines
+ * (see AstShifter) when statements() asks for them, and the old ones are never changed.
+ *
+ * changed() hands out the declarations whose text is new since it was last called, which is
+ * what -Dlox.watch runs again each time the script is saved. EditBenchmark drives edits against
+ * a script and checks them against full parses.
+ */
+class IncrementalParser {
+    private static class Segment {
+        int start;
+        int end;
+        int line;
+        // How many lines the statements are behind where the segment now is.
+        int moved = 0;
+        // Whether changed() has yet to hand out the statements.
+        boolean changed = true;
+        // The line the segment was on when changed() last handed it out.
+        int handedLine = 0;
+        List<Stmt> statements;
+        List<Expr> resolved = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        Segment(int start, int line, List<Stmt> statements) {
+            this.start = start;
+            this.line = line;
+            this.statements = statements;
+        }
+    }
+
+    private final Resolutions resolutions;
+    private final SymbolTable symbols = new SymbolTable();
+    private String source;
+    private List<Segment> segments;
+
+    IncrementalParser(String source, Resolutions resolutions) {
+        this.resolutions = resolutions;
+        this.source = source;
+        this.segments = parse(0, source.length(), 1, true);
+    }
+
+    String source() {
+        return source;
+    }
+
+    List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Segment segment : segments) {
+            statements.addAll(statements(segment));
+        }
+        return statements;
+    }
+
+    // The statements of every declaration that is new, or reads differently, since the last call.
+    // Functions and classes that have only moved come too, since declaring one again does nothing
+    // more than give it the lines its errors should report.
+    List<Stmt> changed() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (!segment.changed && (segment.line == segment.handedLine || !declaresOnly(segment))) continue;
+            statements.addAll(statements(segment));
+            segment.changed = false;
+            segment.handedLine = segment.line;
+        }
+        return statements;
+    }
+
+    private static boolean declaresOnly(Segment segment) {
+        for (Stmt statement : segment.statements) {
+            if (!(statement instanceof Stmt.Function) && !(statement instanceof Stmt.Class)) return false;
+        }
+        return true;
+    }
+
+    private List<Stmt> statements(Segment segment) {
+        if (segment.moved != 0) {
+            AstShifter shifter = new AstShifter(resolutions, segment.moved);
+            segment.statements = shifter.shift(segment.statements);
+            segment.resolved = shifter.resolved();
+            segment.moved = 0;
+        }
+        return segment.statements;
+    }
+
+    List<String> errors() {
+        List<String> errors = new ArrayList<>();
+        for (Segment segment : segments) {
+            errors.addAll(segment.errors);
+        }
+        return errors;
+    }
+
+    boolean hadError() {
+        for (Segment segment : segments) {
+            if (!segment.errors.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    void edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " is outside the source.");
+        }
+
+        String old = source;
+        source = old.substring(0, offset) + inserted + old.substring(offset + removed);
+        int delta = inserted.length() - removed;
+        int lineDelta = lines(inserted, 0, inserted.length()) - lines(old, offset, offset + removed);
+
+        int first = Math.max(0, segmentAt(offset) - 1);
+        int last = segmentAt(offset + removed);
+
+        List<Segment> replacement;
+        for (;;) {
+            boolean toEnd = last == segments.size() - 1;
+            // A broken segment may really be the tail of what we are about to parse, like a stray 'else'.
+            if (!toEnd && !segments.get(last + 1).errors.isEmpty()) {
+                last++;
+                continue;
+            }
+            int to = toEnd ? source.length() : segments.get(last).end + delta;
+            replacement = parse(segments.get(first).start, to, segments.get(first).line, toEnd);
+            if (replacement != null) break;
+            // Widen geometrically so a bad edit costs no more than a few full parses of the rest.
+            last = Math.min(segments.size() - 1, last + (last - first + 1));
+        }
+
+        // A declaration that was only re-parsed for being near the edit hasn't changed.
+        List<String> texts = new ArrayList<>();
+        List<Segment> replaced = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            Segment segment = segments.get(i);
+            texts.add(old.substring(segment.start, segment.end).strip());
+            replaced.add(segment);
+            unresolve(segment);
+        }
+        for (Segment segment : replacement) {
+            int same = texts.indexOf(source.substring(segment.start, segment.end).strip());
+            if (same < 0) continue;
+            segment.changed = replaced.get(same).changed;
+            segment.handedLine = replaced.get(same).handedLine;
+            texts.remove(same);
+            replaced.remove(same);
+        }
+
+        for (int i = last + 1; i < segments.size(); i++) {
+            move(segments.get(i), delta, lineDelta);
+        }
+
+        List<Segment> edited = new ArrayList<>(segments.size() - (last - first + 1) + replacement.size());
+        edited.addAll(segments.subList(0, first));
+        edited.addAll(replacement);
+        edited.addAll(segments.subList(last + 1, segments.size()));
+        segments = edited;
+    }
+
+    // The segment holding the given offset of the old source. Segments cover the source without gaps.
+    private int segmentAt(int offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).start <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Parses and resolves source[from, to) into segments. Unless the range runs to the end of the
+    // file, returns null if the text that follows could change how the range should have been read.
+    private List<Segment> parse(int from, int to, int line, boolean toEnd) {
+        // Tokens keep their text alive, so give them just the range rather than the whole file.
+        String text = source.substring(from, to);
+        List<Scanner.ScanError> scanErrors = new ArrayList<>();
+        Scanner scanner = new Scanner(text, symbols, 0, text.length(), line, scanErrors);
+        List<Token> tokens = scanner.scanTokens();
+        if (!toEnd && (scanner.isOpen() || runsOn(tokens, text.length()))) return null;
+
+        List<Segment> parsed = new ArrayList<>();
+        List<String> diagnostics = Lox.diagnostics.get();
+        boolean hadError = Lox.hadError;
+        try {
+            Parser parser = new Parser(tokens);
+            while (parser.upcoming().type != TokenType.EOF) {
+                Token first = parser.upcoming();
+                // The first segment also owns whatever whitespace and comments lead up to it. A
+                // string token is stamped with the line it ends on, so count back to where it starts.
+                Segment segment = parsed.isEmpty() ?
+                        new Segment(from, line, new ArrayList<>()) :
+                        new Segment(from + first.offset, first.line - lines(text, first.offset, first.offset + first.length),
+                                new ArrayList<>());
+                parsed.add(segment);
+
+                Lox.diagnostics.set(segment.errors);
+                Lox.hadError = false;
+                segment.statements.addAll(parser.next());
+                if (!Lox.hadError) {
+                    new Resolver(resolutions, segment.resolved).resolve(segment.statements);
+                }
+            }
+        } finally {
+            Lox.diagnostics.set(diagnostics);
+            Lox.hadError = hadError;
+        }
+
+        if (parsed.isEmpty()) parsed.add(new Segment(from, line, new ArrayList<>()));
+        for (int i = 0; i < parsed.size(); i++) {
+            parsed.get(i).end = i + 1 < parsed.size() ? parsed.get(i + 1).start : to;
+        }
+
+        // A declaration that broke off at the end of the range, or was still recovering from an
+        // error there, would have read on into the next one.
+        if (!toEnd && !parsed.get(parsed.size() - 1).errors.isEmpty()) {
+            for (Segment segment : parsed) {
+                unresolve(segment);
+            }
+            return null;
+        }
+
+        // Scan errors go to the segment they were found in, ahead of its parse errors.
+        int next = 0;
+        for (int i = 0; i < parsed.size() && next < scanErrors.size(); i++) {
+            int before = 0;
+            while (next < scanErrors.size() &&
+                    (i + 1 == parsed.size() || scanErrors.get(next).line < parsed.get(i + 1).line)) {
+                Scanner.ScanError error = scanErrors.get(next++);
+                parsed.get(i).errors.add(before++, "[line " + error.line + "] Error: " + error.message);
+            }
+        }
+        return parsed;
+    }
+
+    // Whether the last token touches the end of the range and might have gone on into the next one.
+    private static boolean runsOn(List<Token> tokens, int to) {
+        if (tokens.size() < 2) return false;
+        Token last = tokens.get(tokens.size() - 2);
+        return last.offset + last.length == to && last.type != TokenType.SEMICOLON && last.type != TokenType.RIGHT_BRACE;
+    }
+
+    private static void move(Segment segment, int delta, int lineDelta) {
+        segment.start += delta;
+        segment.end += delta;
+        if (lineDelta == 0) return;
+
+        segment.line += lineDelta;
+        segment.moved += lineDelta;
+        // Every diagnostic starts with "[line N]".
+        segment.errors.replaceAll(error -> {
+            int close = error.indexOf(']');
+            int errorLine = Integer.parseInt(error.substring("[line ".length(), close));
+            return "[line " + (errorLine + lineDelta) + error.substring(close);
+        });
+    }
+
+    private void unresolve(Segment segment) {
+        for (Expr expr : segment.resolved) {
+            resolutions.unresolve(expr);
+        }
+    }
+
+    private static int lines(String text, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
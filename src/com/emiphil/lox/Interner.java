@@ -0,0 +1,43 @@
+package com.emiphil.lox;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The one copy of each string literal, identifier and property name in the process.
+ *
+ * Every scanner (and the AstCache, when it loads a program) hands its new strings through
+ * here, so the same text from different files, modules and REPL lines ends up as the same
+ * String. Then comparing two of them for equality is a reference check, and looking one up in
+ * an Environment or LoxInstance finds its hash already computed and matches on the first ==.
+ *
+ * Entries are weak, so text that no program refers to any more can still be collected.
+ */
+class Interner {
+    // The value is weak too, or it would keep its own key alive.
+    private static final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+    private static long lookups = 0;
+    private static long hits = 0;
+
+    private Interner() {
+    }
+
+    static synchronized String intern(String text) {
+        lookups++;
+        WeakReference<String> reference = strings.get(text);
+        String canonical = reference != null ? reference.get() : null;
+        if (canonical != null) {
+            hits++;
+            return canonical;
+        }
+
+        strings.put(text, new WeakReference<>(text));
+        return text;
+    }
+
+    static synchronized String stats() {
+        double rate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return "size=" + strings.size() + " lookups=" + lookups + " hits=" + hits + String.format(" (%.1f%%)", rate);
+    }
+}
@@ -1,33 +1,25 @@
 package com.emiphil.lox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
-    }
+    final Resolutions resolutions = new Resolutions();
+    private final Map<Expr, Integer> locals = resolutions.locals;
+    private final Map<Stmt.Function, MemoCache> memoCaches = new HashMap<>();
+    // The module behind each import, the file each came from, and the modules that have already run.
+    private final Map<Stmt.Import, List<Stmt>> modules = new HashMap<>();
+    private final Map<List<Stmt>, String> files = new IdentityHashMap<>();
+    private final Set<List<Stmt>> executed = Collections.newSetFromMap(new IdentityHashMap<>());
+    // The file of the module whose code is running, or null for the main program.
+    String module = null;
 
     void interpret(List<Stmt> statements) {
         try {
@@ -43,8 +35,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void link(Stmt.Import stmt, List<Stmt> module, String file) {
+        modules.put(stmt, module);
+        files.put(module, file);
+    }
+
+    void memoize(Set<Stmt.Function> functions, int capacity) {
+        for (Stmt.Function function : functions) {
+            memoCaches.putIfAbsent(function, new MemoCache(capacity));
+        }
+    }
+
+    MemoCache memoCache(Stmt.Function function) {
+        return memoCaches.get(function);
+    }
+
+    Map<Stmt.Function, MemoCache> memoCaches() {
+        return memoCaches;
     }
 
     void executeBlock(List<Stmt> statements, Environment environment) {
@@ -70,15 +77,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private boolean isEqual(Object left, Object right) {
-        if (left == null && right == null) return true;
+        // Interned strings, and any value compared with itself.
+        if (left == right) return true;
         if (left == null) return false;
+        if (left instanceof LoxRope) left = left.toString();
+        if (right instanceof LoxRope) right = right.toString();
         return left.equals(right);
     }
 
-    private String stringify(Object object) {
+    private static boolean isString(Object object) {
+        return object instanceof String || object instanceof LoxRope;
+    }
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
+            if (Output.isWhole((double) object)) return Long.toString((long) (double) object);
             String text = object.toString();
             if (text.endsWith(".0")) {
                 text = text.substring(0, text.length() - 2);
@@ -153,8 +168,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return (double) left + (double) right;
                 }
 
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (isString(left) || isString(right)) {
+                    return LoxRope.concat(isString(left) ? left : stringify(left), isString(right) ? right : stringify(right));
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or one string.");
@@ -175,7 +190,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        Intrinsic intrinsic = expr.intrinsic;
+        if (intrinsic != null && intrinsic.isValid(globals)) return callNative(expr, intrinsic.target);
+
         Object callee = evaluate(expr.callee);
+        if (callee instanceof LoxNative) {
+            LoxNative function = (LoxNative) callee;
+            // A native called by its global name can be called without looking it up again.
+            if (expr.callee instanceof Expr.Variable && !locals.containsKey(expr.callee) &&
+                    function.takes(expr.arguments.size())) {
+                expr.intrinsic = new Intrinsic(function, globals);
+            }
+            return callNative(expr, function);
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
@@ -187,11 +214,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
+        if (!function.takes(arguments.size())) {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        // Natives only ever see whole strings.
+        if (!(function instanceof LoxFunction) && !(function instanceof LoxClass)) LoxRope.flatten(arguments);
+
+        try {
+            return function.call(this, expr, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    // Calls a LoxNative without building an argument list.
+    private Object callNative(Expr.Call expr, LoxNative function) {
+        List<Expr> arguments = expr.arguments;
+        Object a = null, b = null, c = null;
+        Object[] all = null;
+        if (arguments.size() > 3) {
+            all = new Object[arguments.size()];
+            for (int i = 0; i < all.length; i++) all[i] = nativeArgument(arguments.get(i));
+        } else {
+            if (arguments.size() > 0) a = nativeArgument(arguments.get(0));
+            if (arguments.size() > 1) b = nativeArgument(arguments.get(1));
+            if (arguments.size() > 2) c = nativeArgument(arguments.get(2));
+        }
+
+        if (!function.takes(arguments.size())) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+
+        try {
+            switch (arguments.size()) {
+                case 0: return function.invoke();
+                case 1: return function.invoke(a);
+                case 2: return function.invoke(a, b);
+                case 3: return function.invoke(a, b, c);
+                default: return function.invoke(all);
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    // Natives only ever see whole strings.
+    private Object nativeArgument(Expr argument) {
+        Object value = evaluate(argument);
+        return value instanceof LoxRope ? value.toString() : value;
     }
 
     @Override
@@ -200,6 +271,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (object instanceof LoxInstance) {
             return ((LoxInstance) object).get(expr.name);
         }
+        if (object instanceof NativeObject) {
+            return ((NativeObject) object).get(expr.name);
+        }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
@@ -249,9 +323,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxFunction method = superclass.findMethod(expr.method.lexeme());
         if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
         }
 
         return method.bind(object);
@@ -286,15 +360,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private Object lookUpVariable(Token name, Expr expr) {
         Integer distance = locals.get(expr);
         if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+            return environment.getAt(distance, name.lexeme());
         } else {
+            return global(name);
+        }
+    }
+
+    private Object global(Token name) {
+        try {
             return globals.get(name);
+        } catch (RuntimeError undefined) {
+            // Library natives become globals the first time anything refers to them.
+            LoxNative found = NativeLibrary.find(name.lexeme());
+            if (found == null) throw undefined;
+            globals.define(name.lexeme(), found);
+            return found;
         }
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        executeBlock(stmt.statements, new Environment(environment, stmt.slots));
         return null;
     }
 
@@ -308,7 +394,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        environment.define(stmt.name.lexeme(), null);
 
         if (superclass != null) {
             environment = new Environment(environment);
@@ -317,11 +403,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme().equals("init"), module);
+            methods.put(method.name.lexeme(), function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass)superclass, methods);
 
         if (superclass != null) {
             environment = environment.enclosing;
@@ -339,8 +425,31 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        LoxFunction function = new LoxFunction(stmt, environment, false, module);
+        environment.define(stmt.name.lexeme(), function);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        List<Stmt> module = modules.get(stmt);
+        if (module == null) {
+            throw new RuntimeError(stmt.path, "Module " + stmt.path.lexeme() + " was never loaded.");
+        }
+
+        // Marked first, so a module that imports itself along the way doesn't run twice.
+        if (!executed.add(module)) return null;
+
+        String enclosing = this.module;
+        this.module = files.get(module);
+        try {
+            executeBlock(module, globals);
+        } catch (RuntimeError error) {
+            error.locate(this.module);
+            throw error;
+        } finally {
+            this.module = enclosing;
+        }
         return null;
     }
 
@@ -357,7 +466,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        Output.println(value);
         return null;
     }
 
@@ -376,7 +485,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        environment.define(stmt.name.lexeme(), value);
         return null;
     }
 
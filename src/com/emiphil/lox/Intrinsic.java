@@ -0,0 +1,24 @@
+package com.emiphil.lox;
+
+/**
+ * What a call expression remembers once it has found that it calls a LoxNative by its global
+ * name: the native itself, so later calls can go straight to it without looking the name up,
+ * checking what it is or counting arguments again.
+ *
+ * That holds for as long as the globals it came from haven't had a native replaced since.
+ */
+final class Intrinsic {
+    final LoxNative target;
+    private final Environment globals;
+    private final int generation;
+
+    Intrinsic(LoxNative target, Environment globals) {
+        this.target = target;
+        this.globals = globals;
+        this.generation = globals.generation;
+    }
+
+    boolean isValid(Environment globals) {
+        return this.globals == globals && generation == globals.generation;
+    }
+}
@@ -0,0 +1,344 @@
+package com.emiphil.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Calls from Lox into Java.
+ *
+ * java("java.lang.Math") is the class: its properties are its static methods and fields, and
+ * calling it calls a constructor. What a method or constructor returns, if it isn't a number,
+ * string, boolean or nil, comes back as a Java object whose properties are its own methods
+ * and fields.
+ *
+ * The method a call runs is picked by name and by the arguments it's given, preferring
+ * overloads that take numbers as doubles, and is only ever looked up once per call site: each
+ * Expr.Call that calls into Java keeps a Site holding the MethodHandle it found last time and
+ * the receiver class it found it for, and goes straight to it while those still match.
+ * Variable arity methods are called with their trailing array as a single argument.
+ *
+ * Classes and methods are LoxCallables, so they can go anywhere a Lox function can. Their arity
+ * is the parameter count their overloads share, or any number if the overloads disagree. Called
+ * from anywhere but a call expression, there is no Site to keep, so the lookup is made each time.
+ */
+class JavaInterop {
+    private static final Object NO_MATCH = new Object();
+    private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    private static final MethodType SPREAD = MethodType.methodType(Object.class, Object[].class);
+
+    // The parameter count of each public method name of a class, or -1 where its overloads
+    // disagree, with constructors under "<init>". Property access uses it to tell methods from fields.
+    private static final ClassValue<Map<String, Integer>> arities = new ClassValue<>() {
+        @Override
+        protected Map<String, Integer> computeValue(Class<?> type) {
+            Map<String, Integer> arities = new HashMap<>();
+            for (Method method : type.getMethods()) {
+                arities.merge(method.getName(), method.getParameterCount(), JavaInterop::agree);
+            }
+            for (Constructor<?> constructor : type.getConstructors()) {
+                arities.merge("<init>", constructor.getParameterCount(), JavaInterop::agree);
+            }
+            return arities;
+        }
+    };
+
+    private JavaInterop() {
+    }
+
+    static JavaClass forName(String name) {
+        try {
+            return new JavaClass(Class.forName(name));
+        } catch (ClassNotFoundException | LinkageError error) {
+            throw new NativeError("Can't find Java class '" + name + "'.");
+        }
+    }
+
+    private static Integer agree(Integer arity, Integer other) {
+        return arity.equals(other) ? arity : -1;
+    }
+
+    static class JavaClass extends NativeObject implements LoxCallable {
+        final Class<?> type;
+        // Calling the class itself calls one of these.
+        final JavaMethod constructor;
+
+        JavaClass(Class<?> type) {
+            this.type = type;
+            this.constructor = new JavaMethod(type, null, null);
+        }
+
+        @Override
+        Object get(Token name) {
+            return member(type, null, name, this);
+        }
+
+        @Override
+        public int arity() {
+            return constructor.arity();
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return constructor.call(interpreter, arguments);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Expr.Call expr, List<Object> arguments) {
+            return constructor.call(interpreter, expr, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "<java class " + type.getName() + ">";
+        }
+    }
+
+    static class JavaObject extends NativeObject {
+        final Object value;
+
+        JavaObject(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object get(Token name) {
+            return member(value.getClass(), value, name, this);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof JavaObject && Objects.equals(value, ((JavaObject) other).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    // A method looked up on a class (receiver null) or an object, or a constructor (name null).
+    static class JavaMethod implements LoxCallable {
+        final Class<?> type;
+        final Object receiver;
+        final String name;
+
+        JavaMethod(Class<?> type, Object receiver, String name) {
+            this.type = type;
+            this.receiver = receiver;
+            this.name = name;
+        }
+
+        @Override
+        public int arity() {
+            return arities.get(type).getOrDefault(name == null ? "<init>" : name, -1);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return new Site().call(this, arguments);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Expr.Call expr, List<Object> arguments) {
+            if (expr.site == null) expr.site = new Site();
+            return expr.site.call(this, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "<java fn " + (name == null ? type.getName() : name) + ">";
+        }
+    }
+
+    // The inline cache of one call expression.
+    static class Site {
+        private Class<?> type = null;
+        private String name = null;
+        private boolean isStatic;
+        private Class<?>[] parameters;
+        private MethodHandle handle;
+
+        Object call(JavaMethod method, List<Object> arguments) {
+            Object[] values = null;
+            if (method.type == type && Objects.equals(method.name, name) &&
+                    isStatic == (method.receiver == null) && parameters.length == arguments.size()) {
+                values = convert(method.receiver, arguments);
+            }
+            if (values == null) {
+                bind(method, arguments);
+                values = convert(method.receiver, arguments);
+            }
+
+            try {
+                return toLox((Object) handle.invokeExact(values));
+            } catch (NativeError error) {
+                throw error;
+            } catch (Throwable error) {
+                throw new NativeError("Java threw " + error + ".");
+            }
+        }
+
+        // The arguments as the cached target takes them, after its receiver if it has one, or
+        // null if they don't fit it.
+        private Object[] convert(Object receiver, List<Object> arguments) {
+            int offset = receiver == null ? 0 : 1;
+            Object[] values = new Object[offset + arguments.size()];
+            if (receiver != null) values[0] = receiver;
+            for (int i = 0; i < parameters.length; i++) {
+                Object value = toJava(arguments.get(i), parameters[i]);
+                if (value == NO_MATCH) return null;
+                values[offset + i] = value;
+            }
+            return values;
+        }
+
+        private void bind(JavaMethod method, List<Object> arguments) {
+            Executable best = null;
+            int bestCost = Integer.MAX_VALUE;
+            Executable[] candidates = method.name == null ? method.type.getConstructors() : method.type.getMethods();
+            for (Executable candidate : candidates) {
+                if (method.name != null && !candidate.getName().equals(method.name)) continue;
+                if (method.name != null && Modifier.isStatic(candidate.getModifiers()) != (method.receiver == null)) continue;
+                if (candidate.getParameterCount() != arguments.size()) continue;
+
+                int cost = cost(candidate.getParameterTypes(), arguments);
+                if (cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                }
+            }
+            if (best == null) {
+                String what = method.name == null ? "constructor of " + method.type.getName() : "method '" + method.name + "'";
+                throw new NativeError("No " + what + " takes arguments like these.");
+            }
+
+            MethodHandle found = unreflect(method.type, best).asFixedArity();
+            type = method.type;
+            name = method.name;
+            isStatic = method.receiver == null;
+            parameters = best.getParameterTypes();
+            handle = found.asSpreader(Object[].class, found.type().parameterCount()).asType(SPREAD);
+        }
+    }
+
+    private static Object member(Class<?> type, Object receiver, Token name, NativeObject owner) {
+        String lexeme = name.lexeme();
+        if (arities.get(type).containsKey(lexeme)) return new JavaMethod(type, receiver, lexeme);
+
+        try {
+            Field field = type.getField(lexeme);
+            if (Modifier.isStatic(field.getModifiers()) == (receiver == null)) {
+                return toLox(field.get(receiver));
+            }
+        } catch (NoSuchFieldException ignored) {
+            // Falls through to the error below.
+        } catch (IllegalAccessException error) {
+            throw new RuntimeError(name, "Can't read field '" + lexeme + "'.");
+        }
+        throw owner.undefined(name);
+    }
+
+    // A public method can be declared by a class we aren't allowed into, like the iterator of a
+    // collection, so we look for it again on the public types that class inherits it from.
+    private static MethodHandle unreflect(Class<?> type, Executable target) {
+        try {
+            if (target instanceof Constructor) return lookup.unreflectConstructor((Constructor<?>) target);
+            return lookup.unreflect((Method) target);
+        } catch (IllegalAccessException error) {
+            // Keep looking.
+        }
+
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        pending.add(type);
+        while (!pending.isEmpty()) {
+            Class<?> next = pending.remove();
+            try {
+                return lookup.unreflect(next.getMethod(target.getName(), target.getParameterTypes()));
+            } catch (NoSuchMethodException | IllegalAccessException error) {
+                // Not on this one.
+            }
+            if (next.getSuperclass() != null) pending.add(next.getSuperclass());
+            pending.addAll(List.of(next.getInterfaces()));
+        }
+        throw new NativeError("Can't access '" + target.getName() + "'.");
+    }
+
+    // How far the arguments are from what the parameters want, or MAX_VALUE if they can't be passed.
+    private static int cost(Class<?>[] parameters, List<Object> arguments) {
+        int cost = 0;
+        for (int i = 0; i < parameters.length; i++) {
+            int one = cost(parameters[i], arguments.get(i));
+            if (one == Integer.MAX_VALUE) return one;
+            cost += one;
+        }
+        return cost;
+    }
+
+    private static int cost(Class<?> parameter, Object argument) {
+        if (toJava(argument, parameter) == NO_MATCH) return Integer.MAX_VALUE;
+        if (argument instanceof JavaObject) argument = ((JavaObject) argument).value;
+        if (argument == null) return 1;
+
+        Class<?> type = box(parameter);
+        if (type == argument.getClass()) return 0;
+        if (argument instanceof Double) {
+            // Narrower numbers only fit some values, so they're the last resort.
+            return type == Number.class || type == Object.class ? 1 : 2;
+        }
+        return 1;
+    }
+
+    // The Lox value as the parameter type wants it, or NO_MATCH.
+    private static Object toJava(Object value, Class<?> type) {
+        if (value instanceof JavaObject) value = ((JavaObject) value).value;
+        if (value instanceof JavaClass && type == Class.class) return ((JavaClass) value).type;
+        if (value == null) return type.isPrimitive() ? NO_MATCH : null;
+
+        Class<?> boxed = box(type);
+        if (value instanceof Double && boxed != Double.class) {
+            double number = (double) value;
+            if (boxed == Integer.class) return number == (int) number ? (Object) (int) number : NO_MATCH;
+            if (boxed == Long.class) return number == (long) number ? (Object) (long) number : NO_MATCH;
+            if (boxed == Short.class) return number == (short) number ? (Object) (short) number : NO_MATCH;
+            if (boxed == Byte.class) return number == (byte) number ? (Object) (byte) number : NO_MATCH;
+            if (boxed == Float.class) return (float) number;
+        }
+        if (value instanceof String && boxed == Character.class) {
+            String text = (String) value;
+            return text.length() == 1 ? (Object) text.charAt(0) : NO_MATCH;
+        }
+        return boxed.isInstance(value) ? value : NO_MATCH;
+    }
+
+    static Object toLox(Object value) {
+        if (value == null || value instanceof Double || value instanceof String || value instanceof Boolean) return value;
+        // Longs past 2^53 lose their low bits, as they would anywhere else in Lox.
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        // Lox values that went through a Java collection come back as themselves.
+        if (value instanceof NativeObject || value instanceof LoxInstance || value instanceof LoxCallable) return value;
+        return new JavaObject(value);
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        return MethodType.methodType(type).wrap().returnType();
+    }
+}
@@ -0,0 +1,195 @@
+package com.emiphil.lox;
+
+import java.util.Arrays;
+
+/**
+ * Bulk numeric natives, for when a loop over an Array or Buffer would spend its time boxing
+ * every intermediate result: vadd, vmul, vfma, vsum, vmin, vmax, vdot, vscan (running totals)
+ * and vfilter (the elements that compare with a threshold a given way).
+ *
+ * They're offered through NativeLibrary, so a program that uses none of them never makes them.
+ * Each works on a plain double[] with simple counted loops, the shape the JIT turns into SIMD
+ * instructions by itself. Elementwise results come back as a new Array. The reductions keep
+ * four running totals rather than one so they aren't held up on a single add at a time, which
+ * means vsum and vdot can differ from a Lox loop in the last few bits.
+ */
+class Kernels {
+    private Kernels() {
+    }
+
+    static final LoxNative[] natives = {
+        new LoxNative("vadd", 2, false) {
+            @Override
+            public Object invoke(Object x, Object y) {
+                int n = length(x);
+                double[] a = numbers(x);
+                double[] b = numbers(y, n);
+                double[] result = new double[n];
+                for (int i = 0; i < n; i++) result[i] = a[i] + b[i];
+                return LoxArray.of(result, n);
+            }
+        },
+        new LoxNative("vmul", 2, false) {
+            @Override
+            public Object invoke(Object x, Object y) {
+                int n = length(x);
+                double[] a = numbers(x);
+                double[] b = numbers(y, n);
+                double[] result = new double[n];
+                for (int i = 0; i < n; i++) result[i] = a[i] * b[i];
+                return LoxArray.of(result, n);
+            }
+        },
+        new LoxNative("vfma", 3, false) {
+            @Override
+            public Object invoke(Object x, Object y, Object z) {
+                int n = length(x);
+                double[] a = numbers(x);
+                double[] b = numbers(y, n);
+                double[] c = numbers(z, n);
+                double[] result = new double[n];
+                for (int i = 0; i < n; i++) result[i] = Math.fma(a[i], b[i], c[i]);
+                return LoxArray.of(result, n);
+            }
+        },
+        new LoxNative("vsum", 1, false) {
+            @Override
+            public Object invoke(Object x) {
+                return sum(numbers(x), length(x));
+            }
+        },
+        new LoxNative("vdot", 2, false) {
+            @Override
+            public Object invoke(Object x, Object y) {
+                int n = length(x);
+                return dot(numbers(x), numbers(y, n), n);
+            }
+        },
+        new LoxNative("vmin", 1, false) {
+            @Override
+            public Object invoke(Object x) {
+                int n = nonEmpty(length(x));
+                double[] a = numbers(x);
+                double min = a[0];
+                for (int i = 1; i < n; i++) min = Math.min(min, a[i]);
+                return min;
+            }
+        },
+        new LoxNative("vmax", 1, false) {
+            @Override
+            public Object invoke(Object x) {
+                int n = nonEmpty(length(x));
+                double[] a = numbers(x);
+                double max = a[0];
+                for (int i = 1; i < n; i++) max = Math.max(max, a[i]);
+                return max;
+            }
+        },
+        new LoxNative("vscan", 1, false) {
+            @Override
+            public Object invoke(Object x) {
+                int n = length(x);
+                double[] a = numbers(x);
+                double[] result = new double[n];
+                double total = 0;
+                for (int i = 0; i < n; i++) {
+                    total += a[i];
+                    result[i] = total;
+                }
+                return LoxArray.of(result, n);
+            }
+        },
+        new LoxNative("vfilter", 3, false) {
+            @Override
+            public Object invoke(Object x, Object comparison, Object threshold) {
+                int n = length(x);
+                double[] result = filter(numbers(x), n, comparison, NativeObject.number(threshold, "Threshold"));
+                return LoxArray.of(result, result.length);
+            }
+        },
+    };
+
+    private static double sum(double[] a, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 4 <= n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        double total = (s0 + s1) + (s2 + s3);
+        for (; i < n; i++) total += a[i];
+        return total;
+    }
+
+    private static double dot(double[] a, double[] b, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 4 <= n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        double total = (s0 + s1) + (s2 + s3);
+        for (; i < n; i++) total += a[i] * b[i];
+        return total;
+    }
+
+    private static double[] filter(double[] a, int n, Object comparison, double threshold) {
+        double[] kept = new double[n];
+        int count = 0;
+        // One loop per comparison, so there's nothing to decide inside them.
+        switch (comparison instanceof String ? (String) comparison : "") {
+            case "<":
+                for (int i = 0; i < n; i++) if (a[i] < threshold) kept[count++] = a[i];
+                break;
+            case "<=":
+                for (int i = 0; i < n; i++) if (a[i] <= threshold) kept[count++] = a[i];
+                break;
+            case ">":
+                for (int i = 0; i < n; i++) if (a[i] > threshold) kept[count++] = a[i];
+                break;
+            case ">=":
+                for (int i = 0; i < n; i++) if (a[i] >= threshold) kept[count++] = a[i];
+                break;
+            case "==":
+                for (int i = 0; i < n; i++) if (a[i] == threshold) kept[count++] = a[i];
+                break;
+            case "!=":
+                for (int i = 0; i < n; i++) if (a[i] != threshold) kept[count++] = a[i];
+                break;
+            default:
+                throw new NativeError("Comparison must be one of \"<\", \"<=\", \">\", \">=\", \"==\" or \"!=\".");
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    // The elements of an Array or Buffer. An Array's storage may run on past its length.
+    private static double[] numbers(Object value) {
+        if (value instanceof LoxBuffer) return ((LoxBuffer) value).toDoubles();
+        if (value instanceof LoxArray) {
+            double[] numbers = ((LoxArray) value).numbers();
+            if (numbers == null) throw new NativeError("Array must hold only numbers.");
+            return numbers;
+        }
+        throw new NativeError("Operand must be an array or a buffer.");
+    }
+
+    private static double[] numbers(Object value, int length) {
+        if (length(value) != length) throw new NativeError("Operands must have the same length.");
+        return numbers(value);
+    }
+
+    private static int length(Object value) {
+        if (value instanceof LoxBuffer) return ((LoxBuffer) value).length();
+        if (value instanceof LoxArray) return ((LoxArray) value).size();
+        throw new NativeError("Operand must be an array or a buffer.");
+    }
+
+    private static int nonEmpty(int length) {
+        if (length == 0) throw new NativeError("Operand must not be empty.");
+        return length;
+    }
+}
@@ -0,0 +1,90 @@
+package com.emiphil.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The body of a function whose parsing and resolution have been put off until it is first called.
+ *
+ * The parser only checks that the body's brackets balance and keeps its tokens. Anything that
+ * reads the statements parses them on the spot, and the resolver hands over the work it would
+ * have done so that compile() can run it later against the scopes of the declaration.
+ */
+class LazyBody extends AbstractList<Stmt> {
+    private List<Token> tokens;
+    private List<Stmt> statements = null;
+    private Runnable resolution = null;
+    private boolean compiled = false;
+    private boolean valid = true;
+    private boolean wellFormed = false;
+
+    LazyBody(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    // Takes the resolver's work for later. Once compiled, the resolver walks the body as usual.
+    boolean defer(Runnable resolution) {
+        if (compiled) return false;
+        this.resolution = resolution;
+        return true;
+    }
+
+    // Parses and resolves the body, reporting any errors just as an eager parse would have.
+    // Returns false if there were any.
+    boolean compile() {
+        if (compiled) return valid;
+        compiled = true;
+
+        valid = parse();
+        // What's left of a body that didn't parse would only report errors that aren't there.
+        if (valid && resolution != null) {
+            boolean hadError = Lox.hadError;
+            Lox.hadError = false;
+            resolution.run();
+            valid = !Lox.hadError;
+            Lox.hadError = hadError || !valid;
+        }
+        resolution = null;
+        return valid;
+    }
+
+    // Parses the body if nothing has yet, reporting any syntax errors. Returns false if there
+    // were any, however the body came to be parsed, so that compile() still refuses it.
+    boolean parse() {
+        if (statements == null) {
+            boolean hadError = Lox.hadError;
+            Lox.hadError = false;
+
+            // The tokens run from just after the '{' through the matching '}', then EOF.
+            statements = new Parser(tokens, true).functionBody();
+            tokens = null;
+
+            wellFormed = !Lox.hadError;
+            Lox.hadError = hadError || !wellFormed;
+        }
+        return wellFormed;
+    }
+
+    @Override
+    public Stmt get(int index) {
+        parse();
+        return statements.get(index);
+    }
+
+    @Override
+    public int size() {
+        parse();
+        return statements.size();
+    }
+
+    // Hashing the statements would force a parse, and nothing relies on comparing bodies anyway.
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
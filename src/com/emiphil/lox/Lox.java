@@ -3,30 +3,105 @@ package com.emiphil.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
+    private static final SymbolTable symbols = new SymbolTable();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    private static boolean interactive = false;
+    // When set, compile errors on this thread are collected here instead of printed.
+    static final ThreadLocal<List<String>> diagnostics = new ThreadLocal<>();
+
+    // -Dlox.memoize=<entries> caches the results of pure functions, keeping at most that many per function.
+    private static final int memoizeCapacity = Integer.getInteger("lox.memoize", 0);
+    private static final boolean memoizeStats = Boolean.getBoolean("lox.memoize.stats");
+    // -Dlox.intern.stats=true reports how the Interner did.
+    private static final boolean internStats = Boolean.getBoolean("lox.intern.stats");
+    // -Dlox.stream=true runs each top level declaration as soon as it is parsed.
+    private static final boolean stream = Boolean.getBoolean("lox.stream");
+    // -Dlox.watch=true runs the script, then keeps watching it and whenever it is saved runs the
+    // declarations that changed again, keeping the rest. The scanning and caching flags don't apply.
+    private static final boolean watch = Boolean.getBoolean("lox.watch");
+    private static final long SETTLE_MILLIS = 100;
+    // -Dlox.parallelScan=true scans large sources in chunks on the common fork-join pool.
+    private static final boolean parallelScan = Boolean.getBoolean("lox.parallelScan");
+    // -Dlox.byteScan=true scans the file's UTF-8 bytes directly with ByteScanner.
+    private static final boolean byteScan = Boolean.getBoolean("lox.byteScan");
+    // -Dlox.lazy=true leaves function bodies unparsed and unresolved until they are first called.
+    private static final boolean lazy = Boolean.getBoolean("lox.lazy");
+    // -Dlox.compact=true shrinks every program with an AstCompactor before running it.
+    private static final AstCompactor compactor = Boolean.getBoolean("lox.compact") ? new AstCompactor(interpreter.resolutions) : null;
+    // -Dlox.cache=<dir> keeps resolved programs there, up to -Dlox.cache.maxBytes in total. Lazy
+    // bodies aren't resolved when the program is stored, so lazy mode goes without.
+    private static final AstCache cache = System.getProperty("lox.cache") == null || lazy ? null :
+            new AstCache(Paths.get(System.getProperty("lox.cache")), Long.getLong("lox.cache.maxBytes", 64L << 20));
+    private static final ModuleLoader modules = new ModuleLoader(cache);
 
     public static void main(String[] args) throws IOException {
         if (args.length > 1) {
             System.out.println("Usage: jlox [script]");
             System.exit(64);
+        } else if (stream && memoizeCapacity > 0) {
+            // Purity needs the whole program, which a stream never has.
+            System.out.println("Usage: -Dlox.memoize can't be combined with -Dlox.stream.");
+            System.exit(64);
         } else if (args.length == 1) {
-            runFile(args[0]);
+            try {
+                runFile(args[0]);
+            } finally {
+                Output.flush();
+            }
         } else {
             runPrompt();
         }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        // Imports are relative to the script that makes them.
+        Path directory = Paths.get(path).toAbsolutePath().getParent();
+
+        if (watch) {
+            watch(Paths.get(path).toAbsolutePath(), directory);
+        } else if (stream) {
+            runStream(path, directory);
+        } else {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            String key = cache != null ? AstCache.key(bytes) : null;
+
+            List<Stmt> statements = key != null ? cache.load(key, interpreter.resolutions) : null;
+            if (statements == null) {
+                if (byteScan) {
+                    statements = compile(new ByteScanner(bytes, symbols).scanTokens());
+                } else {
+                    statements = compile(scan(new String(bytes, StandardCharsets.UTF_8)));
+                }
+                if (statements != null && key != null) cache.store(key, statements, interpreter.resolutions);
+            }
+
+            if (statements != null && modules.link(statements, directory, interpreter)) execute(statements);
+        }
+
+        Output.flush();
+        if (memoizeStats) {
+            for (Map.Entry<Stmt.Function, MemoCache> entry : interpreter.memoCaches().entrySet()) {
+                System.err.println("[memo] " + entry.getKey().name.lexeme() + ": " + entry.getValue());
+            }
+        }
+        if (internStats) System.err.println("[intern] " + Interner.stats());
 
         // Indicate an error in the exit code.
         if (hadError) System.exit(65);
@@ -36,41 +111,165 @@ public class Lox {
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        interactive = true;
+        Output.defaultPolicy(Output.Flush.LINE);
 
         for (;;) {
+            Output.flush();
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
             run(line);
             // In the REPL, errors shouldn't kill the entire session.
             hadError = false;
+            modules.forgetFailures();
         }
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        List<Stmt> statements = compile(scan(source));
+        if (statements != null && modules.link(statements, Paths.get("").toAbsolutePath(), interpreter)) {
+            execute(statements);
+        }
+    }
+
+    private static List<Token> scan(String source) {
+        if (parallelScan) {
+            return new ParallelScanner(source, symbols).scanTokens();
+        }
+        return new Scanner(source, symbols).scanTokens();
+    }
+
+    // Parses and resolves, or returns null if there were any errors.
+    private static List<Stmt> compile(List<Token> tokens) {
+        Parser parser = new Parser(tokens, lazy);
         List<Stmt> statements = parser.parse();
 
         // Stop if there was a syntax error
-        if (hadError) return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.resolutions);
         resolver.resolve(statements);
 
         // Stop if there was a resolution error
-        if (hadError) return;
+        if (hadError) return null;
+
+        return statements;
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (compactor != null) statements = compactor.compact(statements);
+
+        // Purity needs the whole program, since a later REPL line could rebind a callee.
+        if (memoizeCapacity > 0 && !interactive) {
+            interpreter.memoize(new PurityAnalyzer().analyze(statements), memoizeCapacity);
+        }
 
         interpreter.interpret(statements);
     }
 
+    private static void runStream(String path, Path directory) throws IOException {
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            Parser parser = new Parser(new StreamScanner(reader, symbols), lazy);
+            Resolver resolver = new Resolver(interpreter.resolutions);
+
+            // Neither the source nor the token list is ever held in full. Unlike run(), a syntax
+            // error only stops execution from that point on; we keep parsing to report the rest.
+            List<Stmt> statements;
+            while ((statements = parser.next()) != null) {
+                if (hadError) continue;
+
+                resolver.resolve(statements);
+                if (hadError || !modules.link(statements, directory, interpreter)) continue;
+
+                if (compactor != null) statements = compactor.compact(statements);
+                interpreter.interpret(statements);
+                if (hadRuntimeError) break;
+            }
+        }
+    }
+
+    private static void watch(Path file, Path directory) throws IOException {
+        IncrementalParser parser = new IncrementalParser(read(file), interpreter.resolutions);
+        reload(parser, directory);
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            // Editors often save by writing a new file over the old one, so creation counts too.
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            for (;;) {
+                // A save can arrive as several events, the first of them for a truncated file, so
+                // wait until they stop coming before reading it.
+                boolean saved = false;
+                for (WatchKey key = watcher.take(); key != null; key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (file.getFileName().equals(event.context())) saved = true;
+                    }
+                    key.reset();
+                }
+                if (!saved || !Files.exists(file)) continue;
+
+                // One edit spanning everything between the longest common prefix and suffix.
+                String old = parser.source();
+                String source = read(file);
+                int prefix = 0;
+                int limit = Math.min(old.length(), source.length());
+                while (prefix < limit && old.charAt(prefix) == source.charAt(prefix)) prefix++;
+                int suffix = 0;
+                while (suffix < limit - prefix &&
+                        old.charAt(old.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) suffix++;
+                if (prefix == old.length() && prefix == source.length()) continue;
+
+                parser.edit(prefix, old.length() - prefix - suffix, source.substring(prefix, source.length() - suffix));
+                reload(parser, directory);
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs what changed, unless the script as a whole has errors, in which case it waits for a
+    // save that fixes them.
+    private static void reload(IncrementalParser parser, Path directory) {
+        hadError = false;
+        hadRuntimeError = false;
+        if (parser.hadError()) {
+            Output.flush();
+            for (String error : parser.errors()) {
+                System.err.println(error);
+            }
+            return;
+        }
+
+        List<Stmt> changed = parser.changed();
+        if (modules.link(changed, directory, interpreter)) {
+            if (compactor != null) changed = compactor.compact(changed);
+            interpreter.interpret(changed);
+        }
+        Output.flush();
+        // Modules that failed may be fixed before the next save.
+        modules.forgetFailures();
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
     static void error(int line, String message) {
         report(line, "", message);
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
+        report("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    static void report(String error) {
+        List<String> collected = diagnostics.get();
+        if (collected != null) {
+            collected.add(error);
+        } else {
+            Output.flush();
+            System.err.println(error);
+        }
         hadError = true;
     }
 
@@ -78,12 +277,14 @@ public class Lox {
         if (token.type == TokenType.EOF) {
             report(token.line, " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token.line, " at '" + token.lexeme() + "'", message);
         }
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        Output.flush();
+        String where = error.file != null ? error.file + ": " : "";
+        System.err.println(error.getMessage() + "\n" + where + "[line " + error.token.line + "]");
         hadRuntimeError = true;
     }
 }
@@ -0,0 +1,180 @@
+package com.emiphil.lox;
+
+import java.util.Arrays;
+
+/**
+ * The native Array, made by calling Array().
+ *
+ * Elements live unboxed in a double[] for as long as every one of them is a number, and move to
+ * an Object[] the first time anything else is stored. Sorting an Object[] that has gone back to
+ * holding only numbers moves it back again.
+ */
+class LoxArray extends NativeObject {
+    private double[] numbers;
+    // Set once the array holds anything but numbers, at which point numbers is dropped.
+    private Object[] values = null;
+    private int size;
+    // get, set and push are looked up on every element access, so we make them once.
+    private NativeFunction get = null;
+    private NativeFunction set = null;
+    private NativeFunction push = null;
+
+    LoxArray() {
+        this(new double[8], 0);
+    }
+
+    private LoxArray(double[] numbers, int size) {
+        this.numbers = numbers;
+        this.size = size;
+    }
+
+    private LoxArray(Object[] values, int size) {
+        this.numbers = null;
+        this.values = values;
+        this.size = size;
+    }
+
+    static LoxArray of(double[] numbers, int size) {
+        return new LoxArray(numbers, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The unboxed elements, in the first size() slots, or null if they aren't all numbers.
+    double[] numbers() {
+        if (values != null && !unbox()) return null;
+        return numbers;
+    }
+
+    Object get(int index) {
+        if (values != null) return values[index];
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            box();
+        }
+        values[index] = value;
+    }
+
+    void add(Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, Math.max(8, size * 2));
+                numbers[size++] = (double) value;
+                return;
+            }
+            box();
+        }
+        if (size == values.length) values = Arrays.copyOf(values, Math.max(8, size * 2));
+        values[size++] = value;
+    }
+
+    Object removeLast() {
+        Object last = get(--size);
+        if (values != null) values[size] = null;
+        return last;
+    }
+
+    LoxArray slice(int from, int to) {
+        if (values != null) return new LoxArray(Arrays.copyOfRange(values, from, to), to - from);
+        return new LoxArray(Arrays.copyOfRange(numbers, from, to), to - from);
+    }
+
+    void sort() {
+        // An Object[] that holds only numbers again goes back to a double[] first.
+        if (values != null && !unbox()) {
+            for (int i = 0; i < size; i++) {
+                if (!(values[i] instanceof String)) throw new NativeError("Can only sort numbers or strings.");
+            }
+            Arrays.parallelSort(values, 0, size, (left, right) -> ((String) left).compareTo((String) right));
+            return;
+        }
+
+        // Falls back to a sequential sort when the array is too small to be worth splitting.
+        Arrays.parallelSort(numbers, 0, size);
+    }
+
+    private void box() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private boolean unbox() {
+        for (int i = 0; i < size; i++) {
+            if (!(values[i] instanceof Double)) return false;
+        }
+        double[] unboxed = new double[values.length];
+        for (int i = 0; i < size; i++) {
+            unboxed[i] = (double) values[i];
+        }
+        numbers = unboxed;
+        values = null;
+        return true;
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "length":
+                return new NativeFunction(0, arguments -> (double) size);
+            case "get":
+                if (get == null) get = new NativeFunction(1, arguments -> get(index(arguments.get(0), size - 1, "Index")));
+                return get;
+            case "set":
+                if (set == null) {
+                    set = new NativeFunction(2, arguments -> {
+                        set(index(arguments.get(0), size - 1, "Index"), arguments.get(1));
+                        return arguments.get(1);
+                    });
+                }
+                return set;
+            case "push":
+                if (push == null) {
+                    push = new NativeFunction(1, arguments -> {
+                        add(arguments.get(0));
+                        return null;
+                    });
+                }
+                return push;
+            case "pop":
+                return new NativeFunction(0, arguments -> {
+                    if (size == 0) throw new NativeError("Can't pop from an empty array.");
+                    return removeLast();
+                });
+            case "slice":
+                return new NativeFunction(2, arguments -> {
+                    int from = index(arguments.get(0), size, "Start");
+                    int to = index(arguments.get(1), size, "End");
+                    if (to < from) throw new NativeError("End must not come before start.");
+                    return slice(from, to);
+                });
+            case "sort":
+                return new NativeFunction(0, arguments -> {
+                    sort();
+                    return null;
+                });
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            text.append(Interpreter.stringify(get(i)));
+        }
+        return text.append("]").toString();
+    }
+}
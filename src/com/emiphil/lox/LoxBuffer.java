@@ -0,0 +1,227 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The native Buffer: raw memory off the Java heap, so however big it gets the garbage collector
+ * never has to look at it. Buffer(size) allocates that many zeroed bytes and Buffer(path) maps
+ * a file read-only, without copying it in.
+ *
+ * A buffer holds at most 2GB, so Buffer(path) refuses bigger files. Buffer(path, offset, length)
+ * maps just that region of one, and a file of any size can be read a region at a time.
+ *
+ * A buffer is read as bytes (unsigned), and doubles() and ints() give views of the same memory
+ * as 8 and 4 byte numbers in the machine's byte order. slice() gives a view of part of it, and
+ * text() reads its bytes as UTF-8.
+ */
+class LoxBuffer extends NativeObject {
+    enum Kind {
+        BYTE(1), INT(4), DOUBLE(8);
+
+        final int size;
+
+        Kind(int size) {
+            this.size = size;
+        }
+    }
+
+    private final ByteBuffer memory;
+    private final Kind kind;
+    private final int length;
+    // get and set are looked up on every element access, so we make them once.
+    private NativeFunction get = null;
+    private NativeFunction set = null;
+
+    LoxBuffer(int bytes) {
+        this(ByteBuffer.allocateDirect(bytes));
+    }
+
+    // Looks at bytes that belong to something else, without copying them.
+    LoxBuffer(ByteBuffer bytes) {
+        this(bytes.order(ByteOrder.nativeOrder()), Kind.BYTE);
+    }
+
+    private LoxBuffer(ByteBuffer memory, Kind kind) {
+        this.memory = memory;
+        this.kind = kind;
+        this.length = memory.capacity() / kind.size;
+    }
+
+    static LoxBuffer map(String path) {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new NativeError("File is too large to map whole; map it a region at a time with Buffer(path, offset, length).");
+            }
+            // The mapping outlives the channel.
+            return new LoxBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | IllegalArgumentException error) {
+            throw new NativeError("Can't map file '" + path + "'.");
+        }
+    }
+
+    static LoxBuffer map(String path, long offset, int length) {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            if (offset > channel.size() - length) throw new NativeError("Region runs past the end of the file.");
+            return new LoxBuffer(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        } catch (IOException | IllegalArgumentException error) {
+            throw new NativeError("Can't map file '" + path + "'.");
+        }
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    int length() {
+        return length;
+    }
+
+    double get(int index) {
+        switch (kind) {
+            case BYTE: return memory.get(index) & 0xFF;
+            case INT: return memory.getInt(index * 4);
+            default: return memory.getDouble(index * 8);
+        }
+    }
+
+    void set(int index, double value) {
+        try {
+            switch (kind) {
+                case BYTE: memory.put(index, (byte) value); break;
+                case INT: memory.putInt(index * 4, (int) value); break;
+                default: memory.putDouble(index * 8, value); break;
+            }
+        } catch (ReadOnlyBufferException error) {
+            throw new NativeError("Buffer is read-only.");
+        }
+    }
+
+    // Copies the elements out to the heap in one go.
+    double[] toDoubles() {
+        double[] numbers = new double[length];
+        if (kind == Kind.DOUBLE) {
+            memory.asDoubleBuffer().get(0, numbers);
+        } else {
+            for (int i = 0; i < length; i++) numbers[i] = get(i);
+        }
+        return numbers;
+    }
+
+    // The bytes read as UTF-8.
+    String text() {
+        if (memory.hasArray()) {
+            return new String(memory.array(), memory.arrayOffset(), memory.capacity(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(memory.duplicate().clear()).toString();
+    }
+
+    private LoxBuffer slice(int from, int to) {
+        return new LoxBuffer(memory.slice(from * kind.size, (to - from) * kind.size).order(memory.order()), kind);
+    }
+
+    private LoxBuffer view(Kind kind) {
+        return new LoxBuffer(memory, kind);
+    }
+
+    // Checks that value can be stored without losing anything.
+    private double element(Object value) {
+        double number = number(value, "Value");
+        if (kind == Kind.DOUBLE) return number;
+        if (number != Math.floor(number)) throw new NativeError("Value must be an integer.");
+        // Bytes read back unsigned, so only what reads back the same fits.
+        boolean fits = kind == Kind.BYTE ?
+                number >= 0 && number <= 0xFF :
+                number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+        if (!fits) throw new NativeError("Value out of range.");
+        return number;
+    }
+
+    private void fill(double value) {
+        try {
+            switch (kind) {
+                case BYTE:
+                    byte b = (byte) value;
+                    for (int i = 0; i < length; i++) memory.put(i, b);
+                    break;
+                case INT:
+                    int n = (int) value;
+                    for (int i = 0; i < length; i++) memory.putInt(i * 4, n);
+                    break;
+                default:
+                    for (int i = 0; i < length; i++) memory.putDouble(i * 8, value);
+                    break;
+            }
+        } catch (ReadOnlyBufferException error) {
+            throw new NativeError("Buffer is read-only.");
+        }
+    }
+
+    // Copies all of source's bytes in, starting at element at of this buffer.
+    private void copy(LoxBuffer source, int at) {
+        int offset = at * kind.size;
+        if (source.memory.capacity() > memory.capacity() - offset) throw new NativeError("Source doesn't fit.");
+        try {
+            memory.duplicate().position(offset).put(source.memory.duplicate().clear());
+        } catch (ReadOnlyBufferException error) {
+            throw new NativeError("Buffer is read-only.");
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "length":
+                return new NativeFunction(0, arguments -> (double) length);
+            case "get":
+                if (get == null) get = new NativeFunction(1, arguments -> get(index(arguments.get(0), length - 1, "Index")));
+                return get;
+            case "set":
+                if (set == null) {
+                    set = new NativeFunction(2, arguments -> {
+                        set(index(arguments.get(0), length - 1, "Index"), element(arguments.get(1)));
+                        return arguments.get(1);
+                    });
+                }
+                return set;
+            case "fill":
+                return new NativeFunction(1, arguments -> {
+                    fill(element(arguments.get(0)));
+                    return null;
+                });
+            case "copy":
+                return new NativeFunction(2, arguments -> {
+                    if (!(arguments.get(0) instanceof LoxBuffer)) throw new NativeError("Source must be a buffer.");
+                    copy((LoxBuffer) arguments.get(0), index(arguments.get(1), length, "Start"));
+                    return null;
+                });
+            case "slice":
+                return new NativeFunction(2, arguments -> {
+                    int from = index(arguments.get(0), length, "Start");
+                    int to = index(arguments.get(1), length, "End");
+                    if (to < from) throw new NativeError("End must not come before start.");
+                    return slice(from, to);
+                });
+            case "text":
+                return new NativeFunction(0, arguments -> text());
+            case "bytes":
+                return new NativeFunction(0, arguments -> view(Kind.BYTE));
+            case "ints":
+                return new NativeFunction(0, arguments -> view(Kind.INT));
+            case "doubles":
+                return new NativeFunction(0, arguments -> view(Kind.DOUBLE));
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<buffer of " + length + " " + kind.name().toLowerCase() + "s>";
+    }
+}
@@ -0,0 +1,172 @@
+package com.emiphil.lox;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The native Cache, made by calling Cache(maxSize, policy, ttl): at most maxSize entries, with
+ * policy "lru" to evict the least recently used or "lfu" to evict roughly the least frequently
+ * used, and entries expiring ttl seconds after they were put (never if ttl is nil).
+ *
+ * LRU is a LinkedHashMap in access order, like MemoCache. LFU keeps insertion order and a small
+ * use count per entry, and evicts like a clock: going from the front, an entry whose count
+ * is used up goes, and any other has its count cut and moves to the back. Room is made before
+ * a new entry goes in, so the clock never takes the entry it is making room for.
+ */
+class LoxCache extends NativeObject {
+    enum Policy { LRU, LFU }
+
+    private static final int MAX_USES = 15;
+
+    private static class Entry {
+        final Object value;
+        final long expires;
+        int uses = 0;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    // In nanoseconds, or 0 if entries never expire.
+    private final long ttl;
+    private final LinkedHashMap<Object, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    LoxCache(int capacity, Policy policy, double ttlSeconds) {
+        this.capacity = capacity;
+        this.policy = policy;
+        // Rounded up, so a tiny ttl can't come out as 0 and mean never.
+        this.ttl = (long) Math.ceil(ttlSeconds * 1e9);
+        this.entries = new LinkedHashMap<>(16, 0.75f, policy == Policy.LRU);
+    }
+
+    // The cached value, or missing if there is none or it has expired.
+    private Object get(Object key, Object missing) {
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return missing;
+        }
+        hits++;
+        if (entry.uses < MAX_USES) entry.uses++;
+        return entry.value;
+    }
+
+    private void put(Object key, Object value) {
+        Entry entry = new Entry(value, System.nanoTime() + ttl);
+        Entry old = entries.get(key);
+        if (old != null) {
+            entry.uses = old.uses;
+        } else if (entries.size() == capacity) {
+            evict();
+        }
+        entries.put(key, entry);
+    }
+
+    private void evict() {
+        evictions++;
+        if (policy == Policy.LRU) {
+            Iterator<Object> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            return;
+        }
+
+        // Every entry is looked at at most MAX_USES + 1 times before something goes.
+        for (;;) {
+            Iterator<Map.Entry<Object, Entry>> front = entries.entrySet().iterator();
+            Map.Entry<Object, Entry> first = front.next();
+            Entry entry = first.getValue();
+            front.remove();
+            if (entry.uses == 0 || isExpired(entry)) return;
+
+            entry.uses /= 2;
+            entries.put(first.getKey(), entry);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttl != 0 && System.nanoTime() - entry.expires >= 0;
+    }
+
+    private Object getOrCompute(Interpreter interpreter, Object key, LoxCallable compute) {
+        Object value = get(key, this);
+        if (value != this) return value;
+
+        value = compute.call(interpreter, Collections.singletonList(key));
+        put(key, value);
+        return value;
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "get":
+                return new NativeFunction(1, arguments -> get(arguments.get(0), null));
+            case "put":
+                return new NativeFunction(2, arguments -> {
+                    put(arguments.get(0), arguments.get(1));
+                    return arguments.get(1);
+                });
+            case "remove":
+                return new NativeFunction(1, arguments -> {
+                    Entry removed = entries.remove(arguments.get(0));
+                    return removed == null ? null : removed.value;
+                });
+            case "size":
+                return new NativeFunction(0, arguments -> (double) entries.size());
+            case "clear":
+                return new NativeFunction(0, arguments -> {
+                    entries.clear();
+                    return null;
+                });
+            case "hits":
+                return new NativeFunction(0, arguments -> (double) hits);
+            case "misses":
+                return new NativeFunction(0, arguments -> (double) misses);
+            case "evictions":
+                return new NativeFunction(0, arguments -> (double) evictions);
+            case "getOrCompute":
+                return new LoxCallable() {
+                    @Override
+                    public int arity() {
+                        return 2;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(1) instanceof LoxCallable) || !((LoxCallable) arguments.get(1)).takes(1)) {
+                            throw new NativeError("Expect a function that takes the key.");
+                        }
+                        return getOrCompute(interpreter, arguments.get(0), (LoxCallable) arguments.get(1));
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn>";
+                    }
+                };
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<cache " + policy.name().toLowerCase() + " size=" + entries.size() + "/" + capacity +
+                " hits=" + hits + " misses=" + misses + " evictions=" + evictions + ">";
+    }
+}
@@ -3,6 +3,17 @@ package com.emiphil.lox;
 import java.util.List;
 
 interface LoxCallable {
+    // How many arguments it takes, or -1 if it takes any number.
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Called by a call expression, which a callable may keep what it looked up on for next time.
+    default Object call(Interpreter interpreter, Expr.Call expr, List<Object> arguments) {
+        return call(interpreter, arguments);
+    }
+
+    default boolean takes(int count) {
+        int arity = arity();
+        return arity < 0 || arity == count;
+    }
 }
@@ -0,0 +1,445 @@
+package com.emiphil.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The native Dict, made by calling Dict(): an immutable map whose put and remove return a new
+ * dict and leave the old one as it was.
+ *
+ * Entries live in a hash array mapped trie. Each node takes the next five bits of a key's hash
+ * and keeps a 32 bit bitmap of which of its 32 slots are used, with an array just long enough
+ * for those, so a dict of n entries is about log32(n) nodes deep and an update copies only the
+ * nodes on the path to its key. Keys whose hashes are equal all the way down share a collision
+ * node. Keys compare as they do in Map.
+ *
+ * builder() gives a Builder that changes nodes it made itself in place, the same way as the
+ * vector builder, and hands back a dict with persistent().
+ */
+class LoxDict extends NativeObject {
+    // Stands in for a nil key, so that a null key can mark a slot holding a child node.
+    private static final Object NIL = new Object();
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private abstract static class Node {
+        // The builder that may change this node in place, or null if none may.
+        final Object edit;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+
+        boolean isEditable(Object edit) {
+            return edit != null && this.edit == edit;
+        }
+
+        // The value of key, or missing if there is none.
+        abstract Object find(int shift, int hash, Object key, Object missing);
+
+        // This node with key set to value. changed[0] is set if the key is new.
+        abstract Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] changed);
+
+        // This node without key, or null if that leaves it empty. changed[0] is set if the key was there.
+        abstract Node remove(Object edit, int shift, int hash, Object key, boolean[] changed);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    private static final class BitmapNode extends Node {
+        int bitmap;
+        // A key and its value for each bit set in the bitmap, in bit order, or null and the
+        // child node the bit leads to. May be longer than that in a builder's nodes.
+        Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            super(edit);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object missing) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return missing;
+            int index = index(bit);
+            Object found = array[2 * index];
+            Object value = array[2 * index + 1];
+            if (found == null) return ((Node) value).find(shift + BITS, hash, key, missing);
+            return key.equals(found) ? value : missing;
+        }
+
+        @Override
+        Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] changed) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) != 0) {
+                Object found = array[2 * index];
+                Object existing = array[2 * index + 1];
+                if (found == null) {
+                    Node child = ((Node) existing).put(edit, shift + BITS, hash, key, value, changed);
+                    return child == existing ? this : with(edit, 2 * index + 1, child);
+                }
+                if (key.equals(found)) {
+                    return existing == value ? this : with(edit, 2 * index + 1, value);
+                }
+
+                // Another key has this slot, so both move down into a new child.
+                changed[0] = true;
+                Node child = pair(edit, shift + BITS, found, existing, hash, key, value);
+                BitmapNode node = (BitmapNode) with(edit, 2 * index, null);
+                node.array[2 * index + 1] = child;
+                return node;
+            }
+
+            changed[0] = true;
+            int count = Integer.bitCount(bitmap);
+            if (isEditable(edit) && array.length >= 2 * (count + 1)) {
+                System.arraycopy(array, 2 * index, array, 2 * index + 2, 2 * (count - index));
+                array[2 * index] = key;
+                array[2 * index + 1] = value;
+                bitmap |= bit;
+                return this;
+            }
+
+            // Builders leave room to grow into, since they're likely to add more.
+            Object[] newArray = new Object[2 * (count + (edit == null ? 1 : 4))];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            System.arraycopy(array, 2 * index, newArray, 2 * index + 2, 2 * (count - index));
+            return new BitmapNode(edit, bitmap | bit, newArray);
+        }
+
+        @Override
+        Node remove(Object edit, int shift, int hash, Object key, boolean[] changed) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return this;
+            int index = index(bit);
+            Object found = array[2 * index];
+            Object existing = array[2 * index + 1];
+            if (found == null) {
+                Node child = ((Node) existing).remove(edit, shift + BITS, hash, key, changed);
+                if (child == existing) return this;
+                if (child != null) return with(edit, 2 * index + 1, child);
+            } else if (!key.equals(found)) {
+                return this;
+            }
+
+            changed[0] = true;
+            if (bitmap == bit) return null;
+            int count = Integer.bitCount(bitmap);
+            if (isEditable(edit)) {
+                System.arraycopy(array, 2 * index + 2, array, 2 * index, 2 * (count - index - 1));
+                array[2 * count - 2] = null;
+                array[2 * count - 1] = null;
+                bitmap ^= bit;
+                return this;
+            }
+
+            Object[] newArray = new Object[2 * (count - 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            System.arraycopy(array, 2 * index + 2, newArray, 2 * index, 2 * (count - index - 1));
+            return new BitmapNode(edit, bitmap ^ bit, newArray);
+        }
+
+        private Node with(Object edit, int slot, Object value) {
+            if (isEditable(edit)) {
+                array[slot] = value;
+                return this;
+            }
+            Object[] newArray = array.clone();
+            newArray[slot] = value;
+            return new BitmapNode(edit, bitmap, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            int count = Integer.bitCount(bitmap);
+            for (int i = 0; i < count; i++) {
+                if (array[2 * i] == null) {
+                    ((Node) array[2 * i + 1]).forEach(action);
+                } else {
+                    action.accept(array[2 * i], array[2 * i + 1]);
+                }
+            }
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        final int hash;
+        // Keys and their values, side by side.
+        Object[] array;
+
+        CollisionNode(Object edit, int hash, Object[] array) {
+            super(edit);
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object missing) {
+            if (hash != this.hash) return missing;
+            int index = indexOf(key);
+            return index < 0 ? missing : array[index + 1];
+        }
+
+        @Override
+        Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] changed) {
+            if (hash != this.hash) {
+                // A key that only shares part of the hash: this node moves down a level.
+                Node node = new BitmapNode(edit, 1 << ((this.hash >>> shift) & MASK), new Object[] {null, this});
+                return node.put(edit, shift, hash, key, value, changed);
+            }
+
+            int index = indexOf(key);
+            Object[] newArray;
+            if (index >= 0) {
+                if (array[index + 1] == value) return this;
+                newArray = isEditable(edit) ? array : array.clone();
+                newArray[index + 1] = value;
+            } else {
+                changed[0] = true;
+                newArray = Arrays.copyOf(array, array.length + 2);
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+            }
+
+            if (isEditable(edit)) {
+                array = newArray;
+                return this;
+            }
+            return new CollisionNode(edit, hash, newArray);
+        }
+
+        @Override
+        Node remove(Object edit, int shift, int hash, Object key, boolean[] changed) {
+            int index = hash == this.hash ? indexOf(key) : -1;
+            if (index < 0) return this;
+
+            changed[0] = true;
+            if (array.length == 2) return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            if (isEditable(edit)) {
+                array = newArray;
+                return this;
+            }
+            return new CollisionNode(edit, hash, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    static final LoxDict EMPTY = new LoxDict(0, new BitmapNode(null, 0, new Object[0]));
+
+    private final int size;
+    private final Node root;
+
+    private LoxDict(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key, Object missing) {
+        if (key == null) key = NIL;
+        return root.find(0, hash(key), key, missing);
+    }
+
+    LoxDict put(Object key, Object value) {
+        if (key == null) key = NIL;
+        boolean[] changed = new boolean[1];
+        Node newRoot = root.put(null, 0, hash(key), key, value, changed);
+        if (newRoot == root) return this;
+        return new LoxDict(changed[0] ? size + 1 : size, newRoot);
+    }
+
+    LoxDict remove(Object key) {
+        if (key == null) key = NIL;
+        boolean[] changed = new boolean[1];
+        Node newRoot = root.remove(null, 0, hash(key), key, changed);
+        if (newRoot == root) return this;
+        return newRoot == null ? EMPTY : new LoxDict(size - 1, newRoot);
+    }
+
+    private void forEach(BiConsumer<Object, Object> action) {
+        root.forEach((key, value) -> action.accept(key == NIL ? null : key, value));
+    }
+
+    LoxArray keys() {
+        LoxArray array = new LoxArray();
+        forEach((key, value) -> array.add(key));
+        return array;
+    }
+
+    LoxArray values() {
+        LoxArray array = new LoxArray();
+        forEach((key, value) -> array.add(value));
+        return array;
+    }
+
+    private static int hash(Object key) {
+        return LoxMap.mix(key.hashCode());
+    }
+
+    // A node holding both entries, for keys whose hashes agree up to shift.
+    private static Node pair(Object edit, int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2) return new CollisionNode(edit, hash1, new Object[] {key1, value1, key2, value2});
+        boolean[] changed = new boolean[1];
+        return new BitmapNode(edit, 0, new Object[0])
+                .put(edit, shift, hash1, key1, value1, changed)
+                .put(edit, shift, hash2, key2, value2, changed);
+    }
+
+    static final class Builder extends NativeObject {
+        // Null once persistent() has been called, after which the builder can't be used.
+        private Object edit = new Object();
+        private int size;
+        private Node root;
+
+        Builder(LoxDict from) {
+            size = from.size;
+            root = from.root;
+        }
+
+        void put(Object key, Object value) {
+            if (key == null) key = NIL;
+            boolean[] changed = new boolean[1];
+            root = root.put(edit, 0, hash(key), key, value, changed);
+            if (changed[0]) size++;
+        }
+
+        void remove(Object key) {
+            if (key == null) key = NIL;
+            boolean[] changed = new boolean[1];
+            Node newRoot = root.remove(edit, 0, hash(key), key, changed);
+            root = newRoot == null ? EMPTY.root : newRoot;
+            if (changed[0]) size--;
+        }
+
+        LoxDict persistent() {
+            edit = null;
+            return size == 0 ? EMPTY : new LoxDict(size, root);
+        }
+
+        private void checkEditable() {
+            if (edit == null) throw new NativeError("Can't use a builder after persistent().");
+        }
+
+        @Override
+        Object get(Token name) {
+            switch (name.lexeme()) {
+                case "size":
+                    return new NativeFunction(0, arguments -> (double) size);
+                case "get":
+                    return new NativeFunction(1, arguments -> {
+                        Object key = arguments.get(0) == null ? NIL : arguments.get(0);
+                        return root.find(0, hash(key), key, null);
+                    });
+                case "put":
+                    return new NativeFunction(2, arguments -> {
+                        checkEditable();
+                        put(arguments.get(0), arguments.get(1));
+                        return arguments.get(1);
+                    });
+                case "remove":
+                    return new NativeFunction(1, arguments -> {
+                        checkEditable();
+                        remove(arguments.get(0));
+                        return null;
+                    });
+                case "persistent":
+                    return new NativeFunction(0, arguments -> {
+                        checkEditable();
+                        return persistent();
+                    });
+            }
+            throw undefined(name);
+        }
+
+        @Override
+        public String toString() {
+            return "<dict builder size=" + size + ">";
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "size":
+                return new NativeFunction(0, arguments -> (double) size);
+            case "get":
+                return new NativeFunction(1, arguments -> get(arguments.get(0), null));
+            case "getOr":
+                return new NativeFunction(2, arguments -> get(arguments.get(0), arguments.get(1)));
+            case "contains":
+                return new NativeFunction(1, arguments -> get(arguments.get(0), NIL) != NIL);
+            case "put":
+                return new NativeFunction(2, arguments -> put(arguments.get(0), arguments.get(1)));
+            case "remove":
+                return new NativeFunction(1, arguments -> remove(arguments.get(0)));
+            case "keys":
+                return new NativeFunction(0, arguments -> keys());
+            case "values":
+                return new NativeFunction(0, arguments -> values());
+            case "builder":
+                return new NativeFunction(0, arguments -> new Builder(this));
+            case "forEach":
+                return new LoxCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(0) instanceof LoxCallable) || !((LoxCallable) arguments.get(0)).takes(2)) {
+                            throw new NativeError("Expect a function that takes a key and a value.");
+                        }
+                        LoxCallable callable = (LoxCallable) arguments.get(0);
+                        forEach((key, value) -> callable.call(interpreter, Arrays.asList(key, value)));
+                        return null;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn>";
+                    }
+                };
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (text.length() > 1) text.append(", ");
+            text.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(value));
+        });
+        return text.append("}").toString();
+    }
+}
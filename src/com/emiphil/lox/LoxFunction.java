@@ -7,17 +7,20 @@ public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
     private boolean isInitializer;
+    // The file of the module that declared it, or null for the main program.
+    private final String module;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, String module) {
         this.closure = closure;
         this.declaration = declaration;
         this.isInitializer = isInitializer;
+        this.module = module;
     }
 
     LoxFunction bind(LoxInstance instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, environment, isInitializer, module);
     }
 
     @Override
@@ -27,9 +30,42 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        if (declaration.body instanceof LazyBody && !((LazyBody) declaration.body).compile()) {
+            throw new RuntimeError(declaration.name, "Can't call '" + declaration.name.lexeme() + "' because its body has errors.");
+        }
+
+        MemoCache cache = interpreter.memoCache(declaration);
+        // Arguments become keys, so they need to hash as the text they are.
+        if (cache != null) LoxRope.flatten(arguments);
+        if (cache == null || !MemoCache.isCacheable(arguments)) {
+            return invoke(interpreter, arguments);
+        }
+
+        Object result = cache.get(arguments);
+        if (result == MemoCache.MISSING) {
+            result = invoke(interpreter, arguments);
+            cache.put(arguments, result);
+        }
+        return result;
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> arguments) {
+        String caller = interpreter.module;
+        interpreter.module = module;
+        try {
+            return run(interpreter, arguments);
+        } catch (RuntimeError error) {
+            error.locate(module);
+            throw error;
+        } finally {
+            interpreter.module = caller;
+        }
+    }
+
+    private Object run(Interpreter interpreter, List<Object> arguments) {
+        Environment environment = new Environment(closure, declaration.slots);
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(declaration.params.get(i).lexeme(), arguments.get(i));
         }
 
         try {
@@ -47,9 +83,9 @@ public class LoxFunction implements LoxCallable {
     public String toString () {
         List<String> lexemes = new ArrayList<>();
         for (Token param : declaration.params) {
-            lexemes.add(param.lexeme);
+            lexemes.add(param.lexeme());
         }
 
-        return "<fn " + declaration.name.lexeme + "(" + String.join(", ", lexemes) + ")>";
+        return "<fn " + declaration.name.lexeme() + "(" + String.join(", ", lexemes) + ")>";
     }
 }
@@ -0,0 +1,145 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The native Lines, made by calling Lines(path), or Lines(nil) for standard input.
+ *
+ * Reads a file a line at a time through one large buffer, so a file of any size costs no more
+ * memory than its longest line. next() returns the next line as a string, or nil at the end.
+ * The only thing it allocates is that string. nextSlice() doesn't even do that much copying: it
+ * returns a byte Buffer looking straight at the line in our buffer, which is only good until the
+ * next call.
+ *
+ * Lines end at "\n", and a "\r" before it is dropped.
+ *
+ * Every Lines(nil) is the same object, so none loses what another has already read in, and
+ * closing it leaves standard input open.
+ */
+class LoxLines extends NativeObject {
+    private static final int CAPACITY = 1 << 20;
+    private static LoxLines stdin = null;
+
+    private final ReadableByteChannel channel;
+    // Bytes between position and limit have been read in but not handed out.
+    private ByteBuffer buffer = ByteBuffer.allocate(CAPACITY).flip();
+    private boolean atEnd = false;
+    // Where the line found by advance() starts and ends within buffer.
+    private int start;
+    private int end;
+
+    private LoxLines(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    static LoxLines open(String path) {
+        if (path == null) {
+            if (stdin == null) stdin = new LoxLines(Channels.newChannel(System.in));
+            return stdin;
+        }
+        try {
+            return new LoxLines(FileChannel.open(Path.of(path), StandardOpenOption.READ));
+        } catch (IOException | IllegalArgumentException error) {
+            throw new NativeError("Can't read file '" + path + "'.");
+        }
+    }
+
+    String next() {
+        if (!advance()) return null;
+        return new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+    }
+
+    LoxBuffer nextSlice() {
+        if (!advance()) return null;
+        return new LoxBuffer(buffer.slice(start, end - start));
+    }
+
+    void close() {
+        if (this == stdin) return;
+        atEnd = true;
+        buffer.limit(buffer.position());
+        try {
+            channel.close();
+        } catch (IOException error) {
+            throw new NativeError("Can't close file.");
+        }
+    }
+
+    // Finds the next line and moves past it. Returns false once there are none left.
+    private boolean advance() {
+        int from = buffer.position();
+        for (;;) {
+            byte[] bytes = buffer.array();
+            int limit = buffer.limit();
+            for (int i = from; i < limit; i++) {
+                if (bytes[i] != '\n') continue;
+                line(buffer.position(), i);
+                buffer.position(i + 1);
+                return true;
+            }
+
+            if (atEnd) {
+                if (buffer.position() == limit) return false;
+                // The last line has no "\n".
+                line(buffer.position(), limit);
+                buffer.position(limit);
+                return true;
+            }
+
+            from = limit - buffer.position();
+            fill();
+        }
+    }
+
+    private void line(int from, int to) {
+        start = from;
+        end = to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+
+    // Moves what's left to the front and reads in more behind it, growing the buffer if a
+    // single line has filled it.
+    private void fill() {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            bigger.put(buffer.flip());
+            buffer = bigger;
+        }
+
+        try {
+            if (channel.read(buffer) < 0) atEnd = true;
+        } catch (IOException error) {
+            throw new NativeError("Can't read file.");
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "next":
+                return new NativeFunction(0, arguments -> next());
+            case "nextSlice":
+                return new NativeFunction(0, arguments -> nextSlice());
+            case "close":
+                return new NativeFunction(0, arguments -> {
+                    close();
+                    return null;
+                });
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<lines>";
+    }
+}
@@ -0,0 +1,323 @@
+package com.emiphil.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The native Map, made by calling Map().
+ *
+ * Keys are kept in two open addressing tables with linear probing. Number keys go in one as the
+ * raw bits of the double, which is exactly how Lox compares numbers, so they're never boxed.
+ * Strings and every other key go in the other, next to their hash, so neither probing nor
+ * growing the table has to call hashCode() or equals() on a key that can't match. Removal
+ * shifts later entries back instead of leaving tombstones.
+ *
+ * Iteration walks the tables in place; entries come out in table order, not insertion order.
+ */
+class LoxMap extends NativeObject {
+    // Stands in for nil, so that null can mark an empty slot.
+    private static final Object NIL = new Object();
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] numberKeys = new long[MIN_CAPACITY];
+    private Object[] numberValues = new Object[MIN_CAPACITY];
+    private int numberCount = 0;
+
+    private Object[] keys = new Object[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int count = 0;
+
+    // Bumped by every change, so iteration can tell when a callback changed the map under it.
+    private int modifications = 0;
+    // get and put are looked up on every access, so we make them once.
+    private NativeFunction get = null;
+    private NativeFunction put = null;
+
+    int size() {
+        return numberCount + count;
+    }
+
+    Object get(Object key, Object missing) {
+        Object value;
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double) key));
+            value = slot >= 0 ? numberValues[slot] : null;
+        } else {
+            if (key == null) key = NIL;
+            int slot = find(key, hash(key));
+            value = slot >= 0 ? values[slot] : null;
+        }
+
+        if (value == null) return missing;
+        return value == NIL ? null : value;
+    }
+
+    boolean contains(Object key) {
+        if (key instanceof Double) return findNumber(Double.doubleToLongBits((double) key)) >= 0;
+        if (key == null) key = NIL;
+        return find(key, hash(key)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        if (value == null) value = NIL;
+        modifications++;
+
+        if (key instanceof Double) {
+            long bits = Double.doubleToLongBits((double) key);
+            int slot = findNumber(bits);
+            if (slot >= 0) {
+                numberValues[slot] = value;
+                return;
+            }
+            if ((numberCount + 1) * 4 > numberKeys.length * 3) {
+                growNumbers();
+                slot = findNumber(bits);
+            }
+            slot = -1 - slot;
+            numberKeys[slot] = bits;
+            numberValues[slot] = value;
+            numberCount++;
+            return;
+        }
+
+        if (key == null) key = NIL;
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+        if ((count + 1) * 4 > keys.length * 3) {
+            grow();
+            slot = find(key, hash);
+        }
+        slot = -1 - slot;
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        count++;
+    }
+
+    Object remove(Object key) {
+        Object value;
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double) key));
+            if (slot < 0) return null;
+            value = numberValues[slot];
+            deleteNumber(slot);
+            numberCount--;
+        } else {
+            if (key == null) key = NIL;
+            int slot = find(key, hash(key));
+            if (slot < 0) return null;
+            value = values[slot];
+            delete(slot);
+            count--;
+        }
+
+        modifications++;
+        return value == NIL ? null : value;
+    }
+
+    // Hands every entry to the callable, allocating nothing but its argument lists.
+    void forEach(Interpreter interpreter, LoxCallable callable) {
+        int expected = modifications;
+        for (int i = 0; i < numberValues.length; i++) {
+            if (numberValues[i] == null) continue;
+            call(interpreter, callable, Double.longBitsToDouble(numberKeys[i]), numberValues[i]);
+            if (modifications != expected) throw new NativeError("Map changed while iterating over it.");
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) continue;
+            call(interpreter, callable, keys[i], values[i]);
+            if (modifications != expected) throw new NativeError("Map changed while iterating over it.");
+        }
+    }
+
+    LoxArray keys() {
+        LoxArray array = new LoxArray();
+        for (int i = 0; i < numberValues.length; i++) {
+            if (numberValues[i] != null) array.add(Double.longBitsToDouble(numberKeys[i]));
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) array.add(keys[i] == NIL ? null : keys[i]);
+        }
+        return array;
+    }
+
+    LoxArray values() {
+        LoxArray array = new LoxArray();
+        for (Object value : numberValues) {
+            if (value != null) array.add(value == NIL ? null : value);
+        }
+        for (Object value : values) {
+            if (value != null) array.add(value == NIL ? null : value);
+        }
+        return array;
+    }
+
+    private static void call(Interpreter interpreter, LoxCallable callable, Object key, Object value) {
+        callable.call(interpreter, Arrays.asList(key == NIL ? null : key, value == NIL ? null : value));
+    }
+
+    // The slot holding bits, or -1 - the empty slot where it would go.
+    private int findNumber(long bits) {
+        int mask = numberKeys.length - 1;
+        int slot = mix((int) (bits ^ (bits >>> 32))) & mask;
+        while (numberValues[slot] != null) {
+            if (numberKeys[slot] == bits) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1 - slot;
+    }
+
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && (keys[slot] == key || keys[slot].equals(key))) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1 - slot;
+    }
+
+    private void deleteNumber(int slot) {
+        int mask = numberKeys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; numberValues[next] != null; next = (next + 1) & mask) {
+            // An entry can only move back if the hole isn't in front of its home slot.
+            int home = mix((int) (numberKeys[next] ^ (numberKeys[next] >>> 32))) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                numberKeys[hole] = numberKeys[next];
+                numberValues[hole] = numberValues[next];
+                hole = next;
+            }
+        }
+        numberValues[hole] = null;
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hashes[next] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hashes[hole] = hashes[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+    }
+
+    private void growNumbers() {
+        long[] oldKeys = numberKeys;
+        Object[] oldValues = numberValues;
+        numberKeys = new long[oldKeys.length * 2];
+        numberValues = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = -1 - findNumber(oldKeys[i]);
+            numberKeys[slot] = oldKeys[i];
+            numberValues[slot] = oldValues[i];
+        }
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            // The stored hash is all we need to place the key again.
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int hash(Object key) {
+        return mix(key.hashCode());
+    }
+
+    // Spreads the bits about, since the table only looks at the low ones.
+    static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "size":
+                return new NativeFunction(0, arguments -> (double) size());
+            case "get":
+                if (get == null) get = new NativeFunction(1, arguments -> get(arguments.get(0), null));
+                return get;
+            case "getOr":
+                return new NativeFunction(2, arguments -> get(arguments.get(0), arguments.get(1)));
+            case "put":
+                if (put == null) {
+                    put = new NativeFunction(2, arguments -> {
+                        put(arguments.get(0), arguments.get(1));
+                        return arguments.get(1);
+                    });
+                }
+                return put;
+            case "remove":
+                return new NativeFunction(1, arguments -> remove(arguments.get(0)));
+            case "contains":
+                return new NativeFunction(1, arguments -> contains(arguments.get(0)));
+            case "keys":
+                return new NativeFunction(0, arguments -> keys());
+            case "values":
+                return new NativeFunction(0, arguments -> values());
+            case "forEach":
+                return new LoxCallable() {
+                    @Override
+                    public int arity() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (!(arguments.get(0) instanceof LoxCallable) || !((LoxCallable) arguments.get(0)).takes(2)) {
+                            throw new NativeError("Expect a function that takes a key and a value.");
+                        }
+                        forEach(interpreter, (LoxCallable) arguments.get(0));
+                        return null;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "<native fn>";
+                    }
+                };
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        LoxArray keys = keys();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) text.append(", ");
+            Object key = keys.get(i);
+            text.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(get(key, null)));
+        }
+        return text.append("}").toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.emiphil.lox;
+
+import java.util.List;
+
+/**
+ * A native function that can be shipped on its own, as a com.emiphil.lox.LoxNative service
+ * in a jar on the class path (see NativeLibrary).
+ *
+ * Subclasses give their name, arity and purity to the constructor and override the invoke()
+ * that takes that many arguments, or invoke(Object[]) to take any number. The interpreter
+ * calls the fixed arity ones straight from the call expression, so there is no argument list
+ * to allocate. A pure native's result depends only on its arguments, which lets functions that
+ * call it be memoized.
+ *
+ * Arguments and results are Lox values: Double, String, Boolean, null or values made by other
+ * natives. Throw a NativeError to raise a runtime error at the call.
+ */
+public abstract class LoxNative implements LoxCallable {
+    private final String name;
+    private final int arity;
+    private final boolean pure;
+
+    protected LoxNative(String name, int arity, boolean pure) {
+        this.name = name;
+        this.arity = arity;
+        this.pure = pure;
+    }
+
+    public final String name() {
+        return name;
+    }
+
+    @Override
+    public final int arity() {
+        return arity;
+    }
+
+    public final boolean isPure() {
+        return pure;
+    }
+
+    public Object invoke() {
+        return invoke(new Object[0]);
+    }
+
+    public Object invoke(Object a) {
+        return invoke(new Object[] {a});
+    }
+
+    public Object invoke(Object a, Object b) {
+        return invoke(new Object[] {a, b});
+    }
+
+    public Object invoke(Object a, Object b, Object c) {
+        return invoke(new Object[] {a, b, c});
+    }
+
+    public Object invoke(Object[] arguments) {
+        throw new NativeError("Native '" + name + "' can't take " + arguments.length + " arguments.");
+    }
+
+    @Override
+    public final Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arguments.size()) {
+            case 0: return invoke();
+            case 1: return invoke(arguments.get(0));
+            case 2: return invoke(arguments.get(0), arguments.get(1));
+            case 3: return invoke(arguments.get(0), arguments.get(1), arguments.get(2));
+            default: return invoke(arguments.toArray());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
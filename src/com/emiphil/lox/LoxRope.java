@@ -0,0 +1,79 @@
+package com.emiphil.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A string built with '+' that hasn't been needed as a whole yet.
+ *
+ * Concatenation just makes a node pointing at its two halves, so a loop that keeps adding to
+ * a string costs time and memory in proportion to what it adds, not to everything added so
+ * far. The text is put together the first time anything looks at it (printing, comparing,
+ * hashing, handing it to a native) and kept, and the halves are let go.
+ *
+ * Short results are still plain Strings, since a node for them would cost more than it saves.
+ */
+final class LoxRope {
+    // Below this many chars it's cheaper to copy than to build a node.
+    private static final int MIN_LENGTH = 64;
+
+    private Object left;
+    private Object right;
+    private final int length;
+    private String flat = null;
+
+    private LoxRope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    // Both sides are Strings or LoxRopes.
+    static Object concat(Object left, Object right) {
+        int length = length(left) + length(right);
+        if (length < MIN_LENGTH) return left.toString() + right;
+        return new LoxRope(left, right, length);
+    }
+
+    // Replaces any ropes in the list with their text.
+    static void flatten(List<Object> values) {
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) instanceof LoxRope) values.set(i, values.get(i).toString());
+        }
+    }
+
+    private static int length(Object text) {
+        if (text instanceof LoxRope) return ((LoxRope) text).length;
+        return ((String) text).length();
+    }
+
+    @Override
+    public String toString() {
+        if (flat != null) return flat;
+
+        // Ropes built in a loop are as deep as the loop ran, so walk them with our own stack,
+        // filling the text from the back.
+        char[] chars = new char[length];
+        int end = length;
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof LoxRope && ((LoxRope) next).flat == null) {
+                pending.push(((LoxRope) next).left);
+                pending.push(((LoxRope) next).right);
+                continue;
+            }
+
+            String text = next.toString();
+            end -= text.length();
+            text.getChars(0, text.length(), chars, end);
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+}
@@ -0,0 +1,323 @@
+package com.emiphil.lox;
+
+import java.util.Arrays;
+
+/**
+ * The native Vector, made by calling Vector(): an immutable list whose set, push and pop return
+ * a new vector and leave the old one as it was.
+ *
+ * Elements live in the leaves of a trie that branches 32 ways, so a vector of n elements is
+ * about log32(n) nodes deep, and an update copies only the nodes on the path to the element it
+ * changes; everything else is shared with the vector it came from. The last (up to) 32 elements
+ * are kept in a tail array outside the trie, which makes push and pop at the end cheaper still.
+ *
+ * builder() gives a Builder that makes many changes in place and then hands back a vector with
+ * persistent(). It only copies a node the first time it changes one it didn't make itself, which
+ * it tells by the edit token every node it makes carries.
+ */
+class LoxVector extends NativeObject {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final class Node {
+        // The builder that may change this node in place, or null if none may.
+        final Object edit;
+        final Object[] slots;
+
+        Node(Object edit, Object[] slots) {
+            this.edit = edit;
+            this.slots = slots;
+        }
+    }
+
+    static final LoxVector EMPTY = new LoxVector(0, BITS, new Node(null, new Object[WIDTH]), new Object[0]);
+
+    private final int size;
+    // How far to shift an index right for the slot it takes in the root.
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+
+    private LoxVector(int size, int shift, Node root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        return leaf(root, shift, tail, size, index)[index & MASK];
+    }
+
+    LoxVector set(int index, Object value) {
+        if (index >= tailOffset(size)) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new LoxVector(size, shift, root, newTail);
+        }
+        return new LoxVector(size, shift, set(null, shift, root, index, value), tail);
+    }
+
+    LoxVector push(Object value) {
+        if (size - tailOffset(size) < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new LoxVector(size + 1, shift, root, newTail);
+        }
+
+        // The tail is full, so it goes into the trie, which grows a level if it has no room.
+        Node full = new Node(null, tail);
+        if ((size >>> BITS) > (1 << shift)) {
+            Node newRoot = new Node(null, new Object[WIDTH]);
+            newRoot.slots[0] = root;
+            newRoot.slots[1] = path(null, shift, full);
+            return new LoxVector(size + 1, shift + BITS, newRoot, new Object[] {value});
+        }
+        return new LoxVector(size + 1, shift, pushTail(null, size, shift, root, full), new Object[] {value});
+    }
+
+    LoxVector pop() {
+        if (size == 1) return EMPTY;
+        if (size - tailOffset(size) > 1) {
+            return new LoxVector(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+
+        // The tail is about to be empty, so the last leaf of the trie takes its place.
+        Object[] newTail = leaf(root, shift, tail, size, size - 2);
+        Node newRoot = popTail(null, size, shift, root);
+        if (newRoot == null) newRoot = EMPTY.root;
+        if (shift > BITS && newRoot.slots[1] == null) {
+            return new LoxVector(size - 1, shift - BITS, (Node) newRoot.slots[0], newTail);
+        }
+        return new LoxVector(size - 1, shift, newRoot, newTail);
+    }
+
+    // The index of the first element in the tail.
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    // The leaf, or tail, that holds the element at index.
+    private static Object[] leaf(Node root, int shift, Object[] tail, int size, int index) {
+        if (index >= tailOffset(size)) return tail;
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(index >>> level) & MASK];
+        }
+        return node.slots;
+    }
+
+    // The node itself if the builder owning edit made it, otherwise a copy that it owns.
+    private static Node editable(Object edit, Node node) {
+        if (edit != null && node.edit == edit) return node;
+        return new Node(edit, node.slots.clone());
+    }
+
+    private static Node set(Object edit, int level, Node node, int index, Object value) {
+        Node changed = editable(edit, node);
+        if (level == 0) {
+            changed.slots[index & MASK] = value;
+        } else {
+            int slot = (index >>> level) & MASK;
+            changed.slots[slot] = set(edit, level - BITS, (Node) node.slots[slot], index, value);
+        }
+        return changed;
+    }
+
+    // A chain of nodes, one in each level below level, that ends in leaf.
+    private static Node path(Object edit, int level, Node leaf) {
+        if (level == 0) return leaf;
+        Node node = new Node(edit, new Object[WIDTH]);
+        node.slots[0] = path(edit, level - BITS, leaf);
+        return node;
+    }
+
+    // Hangs a full tail off the trie of a vector that holds size elements before it.
+    private static Node pushTail(Object edit, int size, int level, Node parent, Node full) {
+        Node changed = editable(edit, parent);
+        int slot = ((size - 1) >>> level) & MASK;
+        Node child = (Node) parent.slots[slot];
+        if (level == BITS) {
+            changed.slots[slot] = full;
+        } else {
+            changed.slots[slot] = child != null ? pushTail(edit, size, level - BITS, child, full) : path(edit, level - BITS, full);
+        }
+        return changed;
+    }
+
+    // Takes the last leaf off the trie of a vector of size elements, or returns null if that
+    // leaves the node empty.
+    private static Node popTail(Object edit, int size, int level, Node node) {
+        int slot = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node child = popTail(edit, size, level - BITS, (Node) node.slots[slot]);
+            if (child == null && slot == 0) return null;
+            Node changed = editable(edit, node);
+            changed.slots[slot] = child;
+            return changed;
+        }
+        if (slot == 0) return null;
+        Node changed = editable(edit, node);
+        changed.slots[slot] = null;
+        return changed;
+    }
+
+    static final class Builder extends NativeObject {
+        // Null once persistent() has been called, after which the builder can't be used.
+        private Object edit = new Object();
+        private int size;
+        private int shift;
+        private Node root;
+        // Always WIDTH long, unlike the tail of a vector.
+        private Object[] tail;
+
+        Builder(LoxVector from) {
+            size = from.size;
+            shift = from.shift;
+            root = editable(edit, from.root);
+            tail = Arrays.copyOf(from.tail, WIDTH);
+        }
+
+        void push(Object value) {
+            int offset = tailOffset(size);
+            if (size - offset < WIDTH) {
+                tail[size - offset] = value;
+                size++;
+                return;
+            }
+
+            Node full = new Node(edit, tail);
+            tail = new Object[WIDTH];
+            tail[0] = value;
+            if ((size >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(edit, new Object[WIDTH]);
+                newRoot.slots[0] = root;
+                newRoot.slots[1] = path(edit, shift, full);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(edit, size, shift, root, full);
+            }
+            size++;
+        }
+
+        void set(int index, Object value) {
+            if (index >= tailOffset(size)) {
+                tail[index & MASK] = value;
+            } else {
+                root = LoxVector.set(edit, shift, root, index, value);
+            }
+        }
+
+        Object pop() {
+            Object last = get(size - 1);
+            if (size == 1 || size - tailOffset(size) > 1) {
+                tail[(size - 1) & MASK] = null;
+                size--;
+                return last;
+            }
+
+            Object[] newTail = leaf(root, shift, tail, size, size - 2).clone();
+            Node newRoot = popTail(edit, size, shift, root);
+            if (newRoot == null) newRoot = new Node(edit, new Object[WIDTH]);
+            if (shift > BITS && newRoot.slots[1] == null) {
+                newRoot = editable(edit, (Node) newRoot.slots[0]);
+                shift -= BITS;
+            }
+            root = newRoot;
+            tail = newTail;
+            size--;
+            return last;
+        }
+
+        Object get(int index) {
+            return leaf(root, shift, tail, size, index)[index & MASK];
+        }
+
+        LoxVector persistent() {
+            edit = null;
+            if (size == 0) return EMPTY;
+            return new LoxVector(size, shift, root, Arrays.copyOf(tail, size - tailOffset(size)));
+        }
+
+        private void checkEditable() {
+            if (edit == null) throw new NativeError("Can't use a builder after persistent().");
+        }
+
+        @Override
+        Object get(Token name) {
+            switch (name.lexeme()) {
+                case "length":
+                    return new NativeFunction(0, arguments -> (double) size);
+                case "get":
+                    return new NativeFunction(1, arguments -> get(index(arguments.get(0), size - 1, "Index")));
+                case "set":
+                    return new NativeFunction(2, arguments -> {
+                        checkEditable();
+                        set(index(arguments.get(0), size - 1, "Index"), arguments.get(1));
+                        return arguments.get(1);
+                    });
+                case "push":
+                    return new NativeFunction(1, arguments -> {
+                        checkEditable();
+                        push(arguments.get(0));
+                        return null;
+                    });
+                case "pop":
+                    return new NativeFunction(0, arguments -> {
+                        checkEditable();
+                        if (size == 0) throw new NativeError("Can't pop from an empty builder.");
+                        return pop();
+                    });
+                case "persistent":
+                    return new NativeFunction(0, arguments -> {
+                        checkEditable();
+                        return persistent();
+                    });
+            }
+            throw undefined(name);
+        }
+
+        @Override
+        public String toString() {
+            return "<vector builder size=" + size + ">";
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "length":
+                return new NativeFunction(0, arguments -> (double) size);
+            case "get":
+                return new NativeFunction(1, arguments -> get(index(arguments.get(0), size - 1, "Index")));
+            case "set":
+                return new NativeFunction(2, arguments -> set(index(arguments.get(0), size - 1, "Index"), arguments.get(1)));
+            case "push":
+                return new NativeFunction(1, arguments -> push(arguments.get(0)));
+            case "pop":
+                return new NativeFunction(0, arguments -> {
+                    if (size == 0) throw new NativeError("Can't pop from an empty vector.");
+                    return pop();
+                });
+            case "builder":
+                return new NativeFunction(0, arguments -> new Builder(this));
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            text.append(Interpreter.stringify(get(i)));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.emiphil.lox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * The native Writer, made by calling Writer(path), which creates or truncates the file.
+ *
+ * write() and writeLine() go into a large buffer that only reaches the file when it fills, or
+ * on flush() or close(). Writers still open when the program exits are flushed then, and one
+ * the program drops without closing is closed once it has been garbage collected.
+ */
+class LoxWriter extends NativeObject {
+    private static final int CAPACITY = 1 << 16;
+    private static final Cleaner cleaner = Cleaner.create();
+    // What the shutdown hook flushes. It holds the streams rather than the writers, so a writer
+    // nothing uses any more can still be collected, and the cleaner then takes its stream out.
+    private static final Set<Writer> open = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (open) {
+                for (Writer out : open) {
+                    try {
+                        out.flush();
+                    } catch (IOException ignored) {
+                        // Nowhere left to report it.
+                    }
+                }
+            }
+        }));
+    }
+
+    private final String path;
+    private final Writer out;
+    private final Cleaner.Cleanable cleanable;
+    private boolean closed = false;
+
+    // Closes a stream whose writer was dropped. Static, so it doesn't keep the writer alive.
+    private static final class Closer implements Runnable {
+        private final Writer out;
+
+        Closer(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            open.remove(out);
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Nobody is left to tell.
+            }
+        }
+    }
+
+    private LoxWriter(String path, Writer out) {
+        this.path = path;
+        this.out = out;
+        open.add(out);
+        cleanable = cleaner.register(this, new Closer(out));
+    }
+
+    static LoxWriter open(String path) {
+        try {
+            return new LoxWriter(path, new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Path.of(path)), StandardCharsets.UTF_8), CAPACITY));
+        } catch (IOException | IllegalArgumentException error) {
+            throw new NativeError("Can't write file '" + path + "'.");
+        }
+    }
+
+    private void write(String text, boolean line) {
+        if (closed) throw new NativeError("Writer is closed.");
+        try {
+            out.write(text);
+            if (line) out.write('\n');
+        } catch (IOException error) {
+            throw new NativeError("Can't write file '" + path + "'.");
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException error) {
+            throw new NativeError("Can't write file '" + path + "'.");
+        }
+    }
+
+    private void close() {
+        if (closed) return;
+        closed = true;
+        open.remove(out);
+        try {
+            out.close();
+        } catch (IOException error) {
+            throw new NativeError("Can't write file '" + path + "'.");
+        } finally {
+            // Nothing left for the cleaner to do, since closing twice does nothing.
+            cleanable.clean();
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme()) {
+            case "write":
+                return new NativeFunction(1, arguments -> {
+                    write(Interpreter.stringify(arguments.get(0)), false);
+                    return null;
+                });
+            case "writeLine":
+                return new NativeFunction(1, arguments -> {
+                    write(Interpreter.stringify(arguments.get(0)), true);
+                    return null;
+                });
+            case "flush":
+                return new NativeFunction(0, arguments -> {
+                    flush();
+                    return null;
+                });
+            case "close":
+                return new NativeFunction(0, arguments -> {
+                    close();
+                    return null;
+                });
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<writer " + path + ">";
+    }
+}
@@ -0,0 +1,64 @@
+package com.emiphil.lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class MemoCache {
+    static final Object MISSING = new Object();
+
+    private final Map<List<Object>, Object> results;
+    private long hits = 0;
+    private long misses = 0;
+
+    MemoCache(int capacity) {
+        // An access ordered LinkedHashMap gives us LRU eviction for free.
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    static boolean isCacheable(List<Object> arguments) {
+        // Only values with structural equality make sound keys.
+        for (Object argument : arguments) {
+            if (argument == null) continue;
+            if (argument instanceof Double || argument instanceof String || argument instanceof Boolean) continue;
+            return false;
+        }
+        return true;
+    }
+
+    Object get(List<Object> arguments) {
+        Object result = results.getOrDefault(arguments, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    void put(List<Object> arguments, Object result) {
+        results.put(arguments, result);
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    int size() {
+        return results.size();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses + " size=" + results.size();
+    }
+}
@@ -0,0 +1,171 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads the modules named by import declarations.
+ *
+ * Each module is read, scanned, parsed and resolved as its own task on the common fork-join
+ * pool, and starts loading its own imports as soon as it has parsed them, so a whole
+ * dependency graph compiles across all cores. Each file is compiled once however many places
+ * import it, and an AstCache, when there is one, keeps the result for the next run. Files with
+ * the same contents still get nodes of their own, since what their imports mean depends on
+ * where they are.
+ *
+ * Modules share the program's globals: running one binds its top level declarations for
+ * everything that imports it, as if it had been pasted in at the first import. A module runs
+ * at most once, which also makes import cycles harmless.
+ */
+class ModuleLoader {
+    private static class Compiled {
+        final List<Stmt> statements;
+        // Tasks can't share the interpreter's tables, so each module resolves into its own.
+        final Resolutions resolutions;
+        final List<String> errors;
+
+        Compiled(List<Stmt> statements, Resolutions resolutions, List<String> errors) {
+            this.statements = statements;
+            this.resolutions = resolutions;
+            this.errors = errors;
+        }
+    }
+
+    private final AstCache cache;
+    // Each task yields null if its file couldn't be read.
+    private final Map<Path, ForkJoinTask<Compiled>> modules = new ConcurrentHashMap<>();
+    // Only touched from the main thread, while linking.
+    private final Map<Path, Boolean> linked = new HashMap<>();
+
+    ModuleLoader(AstCache cache) {
+        this.cache = cache;
+    }
+
+    // Loads everything the statements import, paths being relative to directory, and links it
+    // into the interpreter. Reports errors and returns false if any module is missing or broken.
+    boolean link(List<Stmt> statements, Path directory, Interpreter interpreter) {
+        List<Stmt.Import> imports = imports(statements);
+        if (imports.isEmpty()) return true;
+
+        for (Stmt.Import stmt : imports) {
+            load(target(directory, stmt));
+        }
+
+        boolean ok = true;
+        for (Stmt.Import stmt : imports) {
+            ok &= link(stmt, target(directory, stmt), interpreter);
+        }
+        return ok;
+    }
+
+    private boolean link(Stmt.Import stmt, Path path, Interpreter interpreter) {
+        Compiled code = load(path).join();
+        if (code == null) {
+            Lox.error(stmt.path, "Can't read module.");
+            return false;
+        }
+
+        interpreter.link(stmt, code.statements, path.toString());
+
+        Boolean ok = linked.get(path);
+        if (ok != null) {
+            // Its own errors were reported the first time, but this import still needs one.
+            if (!ok) Lox.error(stmt.path, "Module has errors.");
+            return ok;
+        }
+
+        // Optimistic while we're inside, so a cycle back to this module ends here.
+        linked.put(path, true);
+        ok = code.errors.isEmpty();
+        for (String error : code.errors) {
+            Lox.report(error);
+        }
+
+        if (ok) {
+            interpreter.resolutions.adopt(code.resolutions);
+            Path directory = path.getParent();
+            for (Stmt.Import inner : imports(code.statements)) {
+                ok &= link(inner, target(directory, inner), interpreter);
+            }
+        }
+
+        if (!ok) Lox.error(stmt.path, "Module has errors.");
+        linked.put(path, ok);
+        return ok;
+    }
+
+    // Forgets every module that couldn't be read, had errors or only got loaded for one that
+    // did, so the REPL compiles it afresh once it has been fixed on disk. Modules that linked
+    // are kept, since they have already run.
+    void forgetFailures() {
+        linked.values().removeIf(ok -> !ok);
+        modules.entrySet().removeIf(entry -> !linked.containsKey(entry.getKey()) && entry.getValue().isDone());
+    }
+
+    private ForkJoinTask<Compiled> load(Path path) {
+        return modules.computeIfAbsent(path, key -> ForkJoinTask.adapt(() -> compile(key)).fork());
+    }
+
+    private Compiled compile(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException error) {
+            return null;
+        }
+
+        Compiled code = compile(path, AstCache.key(bytes), bytes);
+
+        // Start on the dependencies now, rather than when the main thread gets round to them.
+        if (code.errors.isEmpty()) {
+            for (Stmt.Import stmt : imports(code.statements)) {
+                load(target(path.getParent(), stmt));
+            }
+        }
+        return code;
+    }
+
+    private Compiled compile(Path path, String key, byte[] bytes) {
+        Resolutions resolutions = new Resolutions();
+        List<String> errors = new ArrayList<>();
+
+        List<String> diagnostics = Lox.diagnostics.get();
+        Lox.diagnostics.set(errors);
+        try {
+            List<Stmt> statements = cache != null ? cache.load(key, resolutions) : null;
+            if (statements == null) {
+                // Modules are always parsed eagerly, since a lazy body would resolve into a table
+                // nobody reads any more.
+                String source = new String(bytes, StandardCharsets.UTF_8);
+                statements = new Parser(new Scanner(source, new SymbolTable()).scanTokens()).parse();
+                if (errors.isEmpty()) new Resolver(resolutions).resolve(statements);
+                if (errors.isEmpty() && cache != null) cache.store(key, statements, resolutions);
+            }
+            // Say which file they're in, since they're reported from the importing one.
+            errors.replaceAll(error -> path + ": " + error);
+            return new Compiled(statements, resolutions, errors);
+        } finally {
+            Lox.diagnostics.set(diagnostics);
+        }
+    }
+
+    private static List<Stmt.Import> imports(List<Stmt> statements) {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) imports.add((Stmt.Import) statement);
+        }
+        return imports;
+    }
+
+    private static Path target(Path directory, Stmt.Import stmt) {
+        return directory.resolve((String) stmt.path.literal).toAbsolutePath().normalize();
+    }
+}
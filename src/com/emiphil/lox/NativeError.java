@@ -0,0 +1,8 @@
+package com.emiphil.lox;
+
+// Thrown by native code, which has no token of its own; the interpreter pins it on the call.
+public class NativeError extends RuntimeException {
+    public NativeError(String message) {
+        super(message, null, false, false);
+    }
+}
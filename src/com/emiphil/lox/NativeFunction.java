@@ -0,0 +1,32 @@
+package com.emiphil.lox;
+
+import java.util.List;
+
+class NativeFunction implements LoxCallable {
+    interface Body {
+        Object call(List<Object> arguments);
+    }
+
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(arguments);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,186 @@
+package com.emiphil.lox;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The LoxNatives that only become globals when a program first refers to them: our own, and
+ * any that jars on the class path provide through ServiceLoader. Nothing is looked up or
+ * loaded until the first reference to a name that isn't a global already, so a program that
+ * uses none of them pays nothing for them.
+ *
+ * Our own natives win over provided ones of the same name, and globals win over both.
+ */
+class NativeLibrary {
+    private static final LoxNative[] builtins = {
+        new LoxNative("clock", 0, false) {
+            @Override
+            public Object invoke() {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+        },
+        // Not pure, since what it measures can change.
+        new LoxNative("len", 1, false) {
+            @Override
+            public Object invoke(Object a) {
+                if (a instanceof String) return (double) ((String) a).length();
+                if (a instanceof LoxArray) return (double) ((LoxArray) a).size();
+                if (a instanceof LoxMap) return (double) ((LoxMap) a).size();
+                if (a instanceof LoxBuffer) return (double) ((LoxBuffer) a).length();
+                if (a instanceof LoxVector) return (double) ((LoxVector) a).size();
+                if (a instanceof LoxDict) return (double) ((LoxDict) a).size();
+                throw new NativeError("Can only take the length of a string, array, map, buffer, vector or dict.");
+            }
+        },
+        new LoxNative("Array", 0, false) {
+            @Override
+            public Object invoke() {
+                return new LoxArray();
+            }
+        },
+        new LoxNative("Map", 0, false) {
+            @Override
+            public Object invoke() {
+                return new LoxMap();
+            }
+        },
+        new LoxNative("Vector", 0, false) {
+            @Override
+            public Object invoke() {
+                return LoxVector.EMPTY;
+            }
+        },
+        new LoxNative("Dict", 0, false) {
+            @Override
+            public Object invoke() {
+                return LoxDict.EMPTY;
+            }
+        },
+        // Buffer(size) or Buffer(path), and Buffer(path, offset, length) for part of a file.
+        new LoxNative("Buffer", -1, false) {
+            @Override
+            public Object invoke(Object a) {
+                if (a instanceof String) return LoxBuffer.map((String) a);
+                return new LoxBuffer(NativeObject.index(a, Integer.MAX_VALUE, "Size"));
+            }
+
+            @Override
+            public Object invoke(Object a, Object b, Object c) {
+                if (!(a instanceof String)) throw new NativeError("Path must be a string.");
+                double offset = NativeObject.number(b, "Offset");
+                if (offset != Math.floor(offset)) throw new NativeError("Offset must be an integer.");
+                if (offset < 0) throw new NativeError("Offset out of range.");
+                return LoxBuffer.map((String) a, (long) offset, NativeObject.index(c, Integer.MAX_VALUE, "Length"));
+            }
+        },
+        new LoxNative("Cache", 3, false) {
+            @Override
+            public Object invoke(Object size, Object policy, Object ttl) {
+                int capacity = NativeObject.index(size, Integer.MAX_VALUE, "Size");
+                if (capacity == 0) throw new NativeError("Size must be at least 1.");
+                if (!"lru".equals(policy) && !"lfu".equals(policy)) throw new NativeError("Policy must be \"lru\" or \"lfu\".");
+                double seconds = ttl == null ? 0 : NativeObject.number(ttl, "Time to live");
+                if (seconds < 0) throw new NativeError("Time to live must not be negative.");
+                return new LoxCache(capacity, LoxCache.Policy.valueOf(((String) policy).toUpperCase()), seconds);
+            }
+        },
+        new LoxNative("Lines", 1, false) {
+            @Override
+            public Object invoke(Object a) {
+                if (a != null && !(a instanceof String)) {
+                    throw new NativeError("Path must be a string, or nil for standard input.");
+                }
+                return LoxLines.open((String) a);
+            }
+        },
+        new LoxNative("Writer", 1, false) {
+            @Override
+            public Object invoke(Object a) {
+                if (!(a instanceof String)) throw new NativeError("Path must be a string.");
+                return LoxWriter.open((String) a);
+            }
+        },
+        new LoxNative("java", 1, false) {
+            @Override
+            public Object invoke(Object a) {
+                if (!(a instanceof String)) throw new NativeError("Class name must be a string.");
+                return JavaInterop.forName((String) a);
+            }
+        },
+        math("abs", Math::abs),
+        math("ceil", Math::ceil),
+        math("cos", Math::cos),
+        math("exp", Math::exp),
+        math("floor", Math::floor),
+        math("log", Math::log),
+        math("sin", Math::sin),
+        math("sqrt", Math::sqrt),
+        math("tan", Math::tan),
+        math("max", Math::max),
+        math("min", Math::min),
+        math("pow", Math::pow),
+    };
+
+    // Filled in the first time it's needed, by the class initializer.
+    private static class Loaded {
+        static final Map<String, LoxNative> natives = load();
+    }
+
+    private NativeLibrary() {
+    }
+
+    private static LoxNative math(String name, DoubleUnaryOperator operation) {
+        return new LoxNative(name, 1, true) {
+            @Override
+            public Object invoke(Object a) {
+                return operation.applyAsDouble(NativeObject.number(a, "Argument"));
+            }
+        };
+    }
+
+    private static LoxNative math(String name, DoubleBinaryOperator operation) {
+        return new LoxNative(name, 2, true) {
+            @Override
+            public Object invoke(Object a, Object b) {
+                return operation.applyAsDouble(NativeObject.number(a, "Argument"), NativeObject.number(b, "Argument"));
+            }
+        };
+    }
+
+    static LoxNative find(String name) {
+        return Loaded.natives.get(name);
+    }
+
+    static boolean isPure(String name) {
+        LoxNative found = find(name);
+        return found != null && found.isPure();
+    }
+
+    private static Map<String, LoxNative> load() {
+        Map<String, LoxNative> natives = new HashMap<>();
+        for (LoxNative builtin : builtins) {
+            natives.put(builtin.name(), builtin);
+        }
+        for (LoxNative kernel : Kernels.natives) {
+            natives.put(kernel.name(), kernel);
+        }
+
+        Iterator<LoxNative> provided = ServiceLoader.load(LoxNative.class).iterator();
+        for (;;) {
+            try {
+                if (!provided.hasNext()) break;
+                LoxNative next = provided.next();
+                natives.putIfAbsent(next.name(), next);
+            } catch (ServiceConfigurationError error) {
+                // One broken jar shouldn't take every other native down with it.
+                System.err.println("[natives] " + error.getMessage());
+            }
+        }
+        return natives;
+    }
+}
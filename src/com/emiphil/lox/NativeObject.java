@@ -0,0 +1,23 @@
+package com.emiphil.lox;
+
+// A value implemented in Java. Lox code reaches its methods through property access.
+abstract class NativeObject {
+    abstract Object get(Token name);
+
+    RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+
+    static double number(Object value, String what) {
+        if (value instanceof Double) return (double) value;
+        throw new NativeError(what + " must be a number.");
+    }
+
+    // A whole number in [0, limit].
+    static int index(Object value, int limit, String what) {
+        double number = number(value, what);
+        if (number != Math.floor(number)) throw new NativeError(what + " must be an integer.");
+        if (number < 0 || number > limit) throw new NativeError(what + " out of range.");
+        return (int) number;
+    }
+}
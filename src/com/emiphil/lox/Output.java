@@ -0,0 +1,80 @@
+package com.emiphil.lox;
+
+/**
+ * Where print sends its text.
+ *
+ * System.out locks, encodes and (since it autoflushes) often makes a system call on every
+ * line, so instead we gather lines in one big buffer and hand them over a batch at a time.
+ * In a script that happens when the buffer fills, before anything is written to stderr (so
+ * output and errors still come out in order) and at exit. In the REPL it happens after every
+ * line, which -Dlox.flush=line|full overrides either way.
+ */
+class Output {
+    enum Flush { LINE, FULL }
+
+    // -Dlox.outputBuffer=<chars> is how much a script prints between flushes.
+    private static final int capacity = Integer.getInteger("lox.outputBuffer", 1 << 16);
+    // Null if -Dlox.flush isn't set, or isn't set to anything we know.
+    private static final Flush configured = configured(System.getProperty("lox.flush"));
+
+    private static StringBuilder buffer = new StringBuilder(capacity);
+    private static Flush policy = configured == null ? Flush.FULL : configured;
+
+    private Output() {
+    }
+
+    // The policy to use when -Dlox.flush doesn't say.
+    static void defaultPolicy(Flush flush) {
+        policy = configured == null ? flush : configured;
+    }
+
+    private static Flush configured(String value) {
+        if (value == null) return null;
+        for (Flush flush : Flush.values()) {
+            if (flush.name().equalsIgnoreCase(value)) return flush;
+        }
+        System.err.println("Ignoring -Dlox.flush=" + value + ", which must be 'line' or 'full'.");
+        return null;
+    }
+
+    static void println(Object value) {
+        if (value instanceof Double) {
+            number(buffer, (double) value);
+        } else {
+            buffer.append(Interpreter.stringify(value));
+        }
+        buffer.append('\n');
+
+        if (policy == Flush.LINE || buffer.length() >= capacity) flush();
+    }
+
+    static void flush() {
+        if (buffer.length() == 0) return;
+        System.out.append(buffer);
+        System.out.flush();
+
+        // Don't hang on to the room one huge string needed.
+        if (buffer.capacity() > capacity * 4) {
+            buffer = new StringBuilder(capacity);
+        } else {
+            buffer.setLength(0);
+        }
+    }
+
+    // Appends the number as stringify would write it, without making a String on the way.
+    static void number(StringBuilder text, double value) {
+        if (isWhole(value)) {
+            text.append((long) value);
+            return;
+        }
+
+        text.append(value);
+        int length = text.length();
+        if (text.charAt(length - 2) == '.' && text.charAt(length - 1) == '0') text.setLength(length - 2);
+    }
+
+    // Whether Double.toString would write it as digits followed by ".0", which Lox leaves off.
+    static boolean isWhole(double value) {
+        return value == (long) value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0);
+    }
+}
@@ -0,0 +1,142 @@
+package com.emiphil.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.emiphil.lox.TokenType.*;
+
+/**
+ * Scans a large source on a fork-join pool by cutting it into chunks at newlines.
+ *
+ * We can't tell whether a newline sits inside a string or a block comment without scanning
+ * everything before it, so the cuts are speculative: every chunk is scanned as if it starts
+ * at the top level, and a chunk that runs out inside a string or comment carries on into the
+ * next one from where it stopped, in place of that chunk's own scan. Errors are held back and
+ * replayed in source order, so the result is exactly what the sequential Scanner would produce.
+ */
+class ParallelScanner {
+    private static final int MIN_CHUNK = 1 << 20;
+
+    private final String source;
+    private final SymbolTable symbols;
+    private final ForkJoinPool pool;
+
+    private static class Chunk {
+        final int from;
+        int to;
+        int line;
+        SymbolTable symbols;
+        Scanner scanner;
+        List<Token> tokens;
+        List<Scanner.ScanError> errors;
+        boolean open;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void scan(String source, SymbolTable session) {
+            errors = new ArrayList<>();
+            // SymbolTable isn't thread safe, so each chunk interns into a copy of the session's.
+            symbols = new SymbolTable(session);
+            scanner = new Scanner(source, symbols, from, to, line, errors);
+            tokens = scanner.scanChunk();
+            open = scanner.isOpen();
+        }
+
+        // Takes in the next chunk, picking up inside the open string or comment.
+        void extend(int to) {
+            this.to = to;
+            tokens = scanner.extend(to);
+            open = scanner.isOpen();
+        }
+    }
+
+    ParallelScanner(String source, SymbolTable symbols) {
+        this(source, symbols, ForkJoinPool.commonPool());
+    }
+
+    ParallelScanner(String source, SymbolTable symbols, ForkJoinPool pool) {
+        this.source = source;
+        this.symbols = symbols;
+        this.pool = pool;
+    }
+
+    List<Token> scanTokens() {
+        List<Chunk> chunks = split();
+        if (chunks.size() < 2) {
+            // Not worth the ceremony.
+            return new Scanner(source, symbols).scanTokens();
+        }
+
+        // Lines are counted blindly (strings and comments count too), so every chunk's first
+        // line is known before any of them is scanned.
+        List<ForkJoinTask<Integer>> counts = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            counts.add(pool.submit(() -> countLines(chunk.from, chunk.to)));
+        }
+        int line = 1;
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).line = line;
+            line += counts.get(i).join();
+        }
+
+        List<ForkJoinTask<?>> scans = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            scans.add(pool.submit(() -> chunk.scan(source, symbols)));
+        }
+        for (ForkJoinTask<?> scan : scans) {
+            scan.join();
+        }
+
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+
+            // A cut landed inside a string or comment: swallow the following chunks until it closes.
+            while (chunk.open && i + 1 < chunks.size()) {
+                chunk.extend(chunks.get(++i).to);
+            }
+
+            tokens.addAll(chunk.tokens);
+            symbols.addAll(chunk.symbols);
+            for (Scanner.ScanError error : chunk.errors) {
+                Lox.error(error.line, error.message);
+            }
+        }
+
+        tokens.add(new Token(EOF, source, source.length(), 0, "", null, line));
+        return tokens;
+    }
+
+    private List<Chunk> split() {
+        List<Chunk> chunks = new ArrayList<>();
+        int count = Math.min(pool.getParallelism() * 4, source.length() / MIN_CHUNK);
+
+        int from = 0;
+        for (int i = 1; i < count; i++) {
+            int target = (int) ((long) source.length() * i / count);
+            if (target < from) continue;
+
+            // Cut just after the next newline, which can never be inside a token other than a string.
+            int newline = source.indexOf('\n', target);
+            if (newline < 0) break;
+
+            chunks.add(new Chunk(from, newline + 1));
+            from = newline + 1;
+        }
+        chunks.add(new Chunk(from, source.length()));
+        return chunks;
+    }
+
+    private int countLines(int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -6,33 +6,58 @@ import java.util.*;
 
 import static com.emiphil.lox.TokenType.*;
 
-interface Func<R> {
-    R apply();
-}
-
 public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private final TokenSource tokens;
+    // When set, function bodies are only checked for balanced brackets; see LazyBody.
+    private final boolean lazy;
+    private Token previous = null;
+    private Token next;
 
     Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    Parser(List<Token> tokens, boolean lazy) {
+        // The list always ends in EOF, which we never advance past.
+        this(tokens.iterator()::next, lazy);
+    }
+
+    Parser(TokenSource tokens) {
+        this(tokens, false);
+    }
+
+    Parser(TokenSource tokens, boolean lazy) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.next = tokens.nextToken();
     }
 
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
         while (!isAtEnd()) {
-            List<Stmt> declarationStatements = declaration();
-            if (declarationStatements != null) {
-                statements.addAll(declarationStatements);
-            }
+            declaration(statements);
         }
 
         return statements;
     }
 
+    // Pulls the statements of the next top level declaration, or null once the input is exhausted.
+    List<Stmt> next() {
+        if (isAtEnd()) return null;
+
+        List<Stmt> statements = new ArrayList<>();
+        declaration(statements);
+        return statements;
+    }
+
+    // The first token of whatever next() will parse.
+    Token upcoming() {
+        return peek();
+    }
+
     private ParseError error(Token token, String message) {
         Lox.error(token, message);
         return new ParseError();
@@ -50,6 +75,7 @@ public class Parser {
                 case VAR:
                 case FOR:
                 case IF:
+                case IMPORT:
                 case WHILE:
                 case PRINT:
                 case RETURN:
@@ -61,11 +87,11 @@ public class Parser {
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return next;
     }
 
     private boolean isAtEnd() {
@@ -73,7 +99,10 @@ public class Parser {
     }
 
     private Token advance() {
-        if (!isAtEnd()) current++;
+        if (!isAtEnd()) {
+            previous = next;
+            next = tokens.nextToken();
+        }
         return previous();
     }
 
@@ -82,6 +111,16 @@ public class Parser {
         return peek().type == type;
     }
 
+    // Spares the varargs array on the hot single token path.
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
+        }
+
+        return false;
+    }
+
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if (check(type)) {
@@ -99,19 +138,34 @@ public class Parser {
         throw error(peek(), message);
     }
 
-    private List<Stmt> declaration() {
+    // Statement productions append straight to the list they belong to rather than returning a
+    // fresh list per statement; comma separated statements simply append more than once.
+    private void declaration(List<Stmt> statements) {
         try {
-            if (match(CLASS)) return classDeclaration();
-            if (match(FUN)) return function("function");
-            if (match(VAR)) return varDeclaration();
-            return statement();
+            if (match(CLASS)) {
+                statements.add(classDeclaration());
+            } else if (match(FUN)) {
+                statements.add(function("function"));
+            } else if (match(VAR)) {
+                varDeclaration(statements);
+            } else if (match(IMPORT)) {
+                statements.add(importDeclaration());
+            } else {
+                statement(statements);
+            }
         } catch (ParseError error) {
             synchronize();
-            return null;
         }
     }
 
-    private List<Stmt> classDeclaration() {
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
+    private Stmt classDeclaration() {
         Token name = consume(IDENTIFIER, "Expect class name");
 
         Expr.Variable superclass = null;
@@ -124,23 +178,25 @@ public class Parser {
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            methods.add((Stmt.Function) function("method").get(0));
+            methods.add(function("method"));
         }
 
         consume(RIGHT_BRACE, "Expect '}' after class body.");
-        return asList(new Stmt.Class(name, superclass, methods));
+        return new Stmt.Class(name, superclass, methods);
     }
 
-    private List<Stmt> varDeclaration() {
-        List<Stmt> statements = new ArrayList<>();
+    private void varDeclaration(List<Stmt> statements) {
         Token name = consume(IDENTIFIER, "Expect variable name.");
         Expr initializer = null;
         if (match(EQUAL)) {
             initializer = expression();
         }
 
+        // Held back until the whole declaration parses, so a bad one leaves nothing behind.
+        List<Stmt> pieces = null;
         while (match(COMMA)) {
-            statements.add(new Stmt.Var(name, initializer));
+            if (pieces == null) pieces = new ArrayList<>();
+            pieces.add(new Stmt.Var(name, initializer));
             name = consume(IDENTIFIER, "Expect variable name.");
             initializer = null;
             if (match(EQUAL)) {
@@ -149,38 +205,58 @@ public class Parser {
         }
         consume(SEMICOLON, "Expect ';' after variable declaration.");
 
+        if (pieces != null) statements.addAll(pieces);
         statements.add(new Stmt.Var(name, initializer));
-        return statements;
     }
 
-    private List<Stmt> statement() {
+    private void statement(List<Stmt> statements) {
+        if (match(FOR)) {
+            statements.add(forStatement());
+        } else if (match(IF)) {
+            statements.add(ifStatement());
+        } else if (match(PRINT)) {
+            printStatement(statements);
+        } else if (match(RETURN)) {
+            statements.add(returnStatement());
+        } else if (match(WHILE)) {
+            statements.add(whileStatement());
+        } else if (match(LEFT_BRACE)) {
+            statements.add(new Stmt.Block(block()));
+        } else {
+            expressionStatement(statements);
+        }
+    }
+
+    // The body of an if, while or for, which has to be a single statement.
+    private Stmt body() {
         if (match(FOR)) return forStatement();
         if (match(IF)) return ifStatement();
-        if (match(PRINT)) return printStatement();
         if (match(RETURN)) return returnStatement();
         if (match(WHILE)) return whileStatement();
-        if (match(LEFT_BRACE)) {
-            List<Stmt> block = new ArrayList<>();
-            block.add(new Stmt.Block(block()));
-            return block;
-        }
-        return expressionStatement();
-    }
+        if (match(LEFT_BRACE)) return new Stmt.Block(block());
 
-    private List<Stmt> asList(Stmt statement) {
-        List<Stmt> statements = new ArrayList<>();
-        statements.add(statement);
-        return statements;
+        // As before, only the first of a comma separated list is kept.
+        List<Stmt> statements = new ArrayList<>(1);
+        if (match(PRINT)) {
+            printStatement(statements);
+        } else {
+            expressionStatement(statements);
+        }
+        return statements.get(0);
     }
 
-    private List<Stmt> forStatement() {
+    private Stmt forStatement() {
         // we caramelize for loops to their equivalent while loops
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         List<Stmt> initializer;
-        if (match(SEMICOLON)) initializer = null;
-        else if (match(VAR)) initializer = varDeclaration();
-        else initializer = expressionStatement();
+        if (match(SEMICOLON)) {
+            initializer = null;
+        } else {
+            initializer = new ArrayList<>();
+            if (match(VAR)) varDeclaration(initializer);
+            else expressionStatement(initializer);
+        }
 
         Expr condition = null;
         if (!check(SEMICOLON)) {
@@ -194,7 +270,7 @@ public class Parser {
         }
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
 
-        Stmt body = statement().get(0);
+        Stmt body = body();
 
         if (increment != null) {
             body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
@@ -208,69 +284,71 @@ public class Parser {
             body = new Stmt.Block(initializer);
         }
 
-        return asList(body);
+        return body;
     }
 
-    private List<Stmt> ifStatement() {
+    private Stmt ifStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after if condition.");
 
-        Stmt thenBranch = statement().get(0);
+        Stmt thenBranch = body();
         Stmt elseBranch = null;
         if (match(ELSE)) {
-            elseBranch = statement().get(0);
+            elseBranch = body();
         }
 
-        return asList(new Stmt.If(condition, thenBranch, elseBranch));
+        return new Stmt.If(condition, thenBranch, elseBranch);
     }
 
-    private List<Stmt> printStatement() {
-        List<Stmt> statements = new ArrayList<>();
+    private void printStatement(List<Stmt> statements) {
         Expr value = expression();
+        List<Stmt> pieces = null;
         while (match(COMMA)) {
-            statements.add(new Stmt.Print(value));
+            if (pieces == null) pieces = new ArrayList<>();
+            pieces.add(new Stmt.Print(value));
             value = expression();
         }
         consume(SEMICOLON, "Expect ';' after value.");
 
+        if (pieces != null) statements.addAll(pieces);
         statements.add(new Stmt.Print(value));
-        return statements;
     }
 
-    private List<Stmt> returnStatement() {
+    private Stmt returnStatement() {
         Token keyword = previous();
         Expr value = null;
         if (!check(SEMICOLON)) {
             value = expression();
         }
         consume(SEMICOLON, "Expect ';' after return value.");
-        return asList(new Stmt.Return(keyword, value));
+        return new Stmt.Return(keyword, value);
     }
 
-    private List<Stmt> whileStatement() {
+    private Stmt whileStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after while condition.");
-        Stmt body = statement().get(0);
-        return asList(new Stmt.While(condition, body));
+        Stmt body = body();
+        return new Stmt.While(condition, body);
     }
 
-    private List<Stmt> expressionStatement() {
-        List<Stmt> statements = new ArrayList<>();
+    private void expressionStatement(List<Stmt> statements) {
         Expr expr = expression();
+        List<Stmt> pieces = null;
         while (match(COMMA)) {
-            statements.add(new Stmt.Expression(expr));
+            if (pieces == null) pieces = new ArrayList<>();
+            pieces.add(new Stmt.Expression(expr));
             expr = expression();
         }
 
         consume(SEMICOLON, "Expect ';' after expression.");
 
+        if (pieces != null) statements.addAll(pieces);
         statements.add(new Stmt.Expression(expr));
-        return statements;
     }
 
-    private List<Stmt> function(String kind) {
+    private Stmt.Function function(String kind) {
         Token name = null;
         if (kind.equals("method")) {
             // methods must provide a name
@@ -297,23 +375,66 @@ public class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters");
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        List<Stmt> body = lazy ? lazyBody() : block();
 
         if (name == null) {
             // This is an anonymous function, so set the name to be a hash of the parameters and body
             name = new Token(TokenType.IDENTIFIER, "lox_anon_" + parameters.hashCode() + "_" + body.hashCode(), null, previous().line);
         }
 
-        return asList(new Stmt.Function(name, parameters, body));
+        return new Stmt.Function(name, parameters, body);
+    }
+
+    // Parses the tokens of a body collected by lazyBody(). Errors have been reported by the time we return.
+    List<Stmt> functionBody() {
+        try {
+            return block();
+        } catch (ParseError error) {
+            return new ArrayList<>();
+        }
+    }
+
+    // Collects the tokens up to the '}' that closes the body without building any nodes.
+    private List<Stmt> lazyBody() {
+        List<Token> body = new ArrayList<>();
+        int braces = 0;
+        int parens = 0;
+        boolean balanced = true;
+        boolean closed = false;
+
+        while (!isAtEnd()) {
+            Token token = advance();
+            body.add(token);
+
+            if (token.type == LEFT_BRACE) {
+                braces++;
+            } else if (token.type == RIGHT_BRACE) {
+                if (braces == 0) {
+                    closed = true;
+                    break;
+                }
+                braces--;
+            } else if (token.type == LEFT_PAREN) {
+                parens++;
+            } else if (token.type == RIGHT_PAREN) {
+                if (parens == 0) balanced = false;
+                parens--;
+            }
+        }
+        body.add(closed ? new Token(EOF, "", null, previous().line) : peek());
+
+        // A body that is obviously broken gets parsed now, so its errors come out where they always have.
+        if (!closed || !balanced || parens != 0) {
+            return new Parser(body, true).functionBody();
+        }
+
+        return new LazyBody(body);
     }
 
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            List<Stmt> line = declaration();
-            if (line != null) {
-                statements.addAll(line);
-            }
+            declaration(statements);
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
@@ -324,26 +445,6 @@ public class Parser {
         return assignment();
     }
 
-    private Expr leftAssociativeBinary(Func<Expr> production, TokenType... types) {
-        Expr expr = production.apply();
-        while (match(types)) {
-            Token operator = previous();
-            Expr right = production.apply();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr leftAssociativeLogical(Func<Expr> production, TokenType... types) {
-        Expr expr = production.apply();
-        while (match(types)) {
-            Token operator = previous();
-            Expr right = production.apply();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
-
     private Expr assignment() {
         Expr expr = or();
 
@@ -366,32 +467,66 @@ public class Parser {
         return expr;
     }
 
-    private Expr or() {
-        return leftAssociativeLogical(this::and, OR);
+    private static final int NONE = 0;
+    private static final int OR_PRECEDENCE = 1;
+    private static final int AND_PRECEDENCE = 2;
+    private static final int EQUALITY = 3;
+    private static final int COMPARISON = 4;
+    private static final int TERM = 5;
+    private static final int FACTOR = 6;
+
+    private static int precedence(TokenType type) {
+        switch (type) {
+            case OR:
+                return OR_PRECEDENCE;
+            case AND:
+                return AND_PRECEDENCE;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return EQUALITY;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return COMPARISON;
+            case MINUS:
+            case PLUS:
+                return TERM;
+            case SLASH:
+            case STAR:
+                return FACTOR;
+            default:
+                return NONE;
+        }
     }
 
-    private Expr and() {
-        return leftAssociativeLogical(this::equality, AND);
+    private Expr or() {
+        return binary(OR_PRECEDENCE);
     }
 
-    private Expr equality() {
-        return leftAssociativeBinary(this::comparison, BANG_EQUAL, EQUAL_EQUAL);
-    }
+    // Precedence climbing: a single loop handles every left associative level from 'or' down
+    // to factor, instead of descending through a method per level for every operand.
+    private Expr binary(int minPrecedence) {
+        Expr expr = unary();
 
-    private Expr comparison() {
-        return leftAssociativeBinary(this::term, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
-    }
+        for (;;) {
+            int precedence = precedence(peek().type);
+            if (precedence == NONE || precedence < minPrecedence) break;
 
-    private Expr term() {
-        return leftAssociativeBinary(this::factor, MINUS, PLUS);
-    }
+            Token operator = advance();
+            Expr right = binary(precedence + 1);
+            if (precedence <= AND_PRECEDENCE) {
+                expr = new Expr.Logical(expr, operator, right);
+            } else {
+                expr = new Expr.Binary(expr, operator, right);
+            }
+        }
 
-    private Expr factor() {
-        return leftAssociativeBinary(this::unary, SLASH, STAR);
+        return expr;
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
+        if (match(BANG) || match(MINUS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
@@ -441,7 +576,7 @@ public class Parser {
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null);
 
-        if (match(NUMBER, STRING)) {
+        if (match(NUMBER) || match(STRING)) {
             return new Expr.Literal(previous().literal);
         }
 
@@ -461,7 +596,7 @@ public class Parser {
         }
 
         if (match(FUN)) {
-            return new Expr.Statement(function("function").get(0));
+            return new Expr.Statement(function("function"));
         }
 
         if (match(LEFT_PAREN)) {
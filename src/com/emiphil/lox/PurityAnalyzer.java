@@ -0,0 +1,313 @@
+package com.emiphil.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions of a program whose result depends only on their arguments.
+ *
+ * A function is pure when it does not print, touch fields, assign to anything outside of
+ * its own locals or declare closures, and every name it reads from an outer scope is a
+ * function that is itself pure. Callee names must be declared exactly once and never
+ * reassigned, so a reference can't later be rebound to something impure.
+ */
+class PurityAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class FunctionInfo {
+        final Stmt.Function declaration;
+        final boolean candidate;
+        final List<Set<String>> scopes = new ArrayList<>();
+        final Set<String> references = new HashSet<>();
+        boolean pure = true;
+
+        FunctionInfo(Stmt.Function declaration, boolean candidate) {
+            this.declaration = declaration;
+            this.candidate = candidate;
+        }
+
+        boolean isLocal(String name) {
+            for (Set<String> scope : scopes) {
+                if (scope.contains(name)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final List<FunctionInfo> functions = new ArrayList<>();
+    private final List<FunctionInfo> enclosing = new ArrayList<>();
+    private final Map<String, Integer> declarations = new HashMap<>();
+    private final Map<String, FunctionInfo> named = new HashMap<>();
+    private final Set<String> assigned = new HashSet<>();
+    // Set once the program imports anything, since modules can define any name at all.
+    private boolean imports = false;
+
+    Set<Stmt.Function> analyze(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+
+        // Assume every locally pure function is pure, then strip the ones that reach
+        // impure names until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FunctionInfo info : functions) {
+                if (!info.pure) continue;
+                for (String reference : info.references) {
+                    if (!isPureName(reference)) {
+                        info.pure = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        Set<Stmt.Function> pure = new HashSet<>();
+        for (FunctionInfo info : functions) {
+            if (info.pure && info.candidate) pure.add(info.declaration);
+        }
+        return pure;
+    }
+
+    private boolean isPureName(String name) {
+        if (assigned.contains(name)) return false;
+        // A name the program never declares can still be a pure library native, unless a
+        // module might be what defines it.
+        if (!declarations.containsKey(name)) return !imports && NativeLibrary.isPure(name);
+        if (declarations.getOrDefault(name, 0) != 1) return false;
+
+        FunctionInfo info = named.get(name);
+        return info != null && info.pure;
+    }
+
+    private FunctionInfo current() {
+        if (enclosing.isEmpty()) return null;
+        return enclosing.get(enclosing.size() - 1);
+    }
+
+    private void impure() {
+        FunctionInfo info = current();
+        if (info != null) info.pure = false;
+    }
+
+    private void declare(Token name) {
+        declarations.merge(name.lexeme(), 1, Integer::sum);
+
+        FunctionInfo info = current();
+        if (info != null) {
+            info.scopes.get(info.scopes.size() - 1).add(name.lexeme());
+        }
+    }
+
+    private FunctionInfo analyzeFunction(Stmt.Function function, boolean candidate) {
+        // Closures capture the enclosing locals, so the outer function is no longer pure.
+        impure();
+
+        FunctionInfo info = new FunctionInfo(function, candidate);
+        functions.add(info);
+        enclosing.add(info);
+
+        info.scopes.add(new HashSet<>());
+        for (Token param : function.params) {
+            declare(param);
+        }
+        // A body with syntax errors can never be called, so there is nothing in it to follow.
+        if (function.body instanceof LazyBody && !((LazyBody) function.body).parse()) {
+            info.pure = false;
+            enclosing.remove(enclosing.size() - 1);
+            return info;
+        }
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+
+        enclosing.remove(enclosing.size() - 1);
+        return info;
+    }
+
+    @Override
+    public Void visitStatementExpr(Expr.Statement expr) {
+        // Anonymous functions can be memoized but never referenced by name.
+        if (expr.statement instanceof Stmt.Function) {
+            analyzeFunction((Stmt.Function) expr.statement, true);
+        } else {
+            expr.statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.value.accept(this);
+        assigned.add(expr.name.lexeme());
+
+        FunctionInfo info = current();
+        if (info != null && !info.isLocal(expr.name.lexeme())) info.pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable)) impure();
+
+        expr.callee.accept(this);
+        for (Expr argument : expr.arguments) {
+            argument.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        // Fields are mutable, so reading one is as bad as writing one.
+        impure();
+        expr.object.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        impure();
+        expr.object.accept(this);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        FunctionInfo info = current();
+        if (info != null && !info.isLocal(expr.name.lexeme())) {
+            info.references.add(expr.name.lexeme());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        FunctionInfo info = current();
+        if (info != null) info.scopes.add(new HashSet<>());
+
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+
+        if (info != null) info.scopes.remove(info.scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        impure();
+        declare(stmt.name);
+
+        if (stmt.superclass != null) stmt.superclass.accept(this);
+
+        // Methods are bound to an instance, so they are walked but never memoized.
+        for (Stmt.Function method : stmt.methods) {
+            analyzeFunction(method, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        named.put(stmt.name.lexeme(), analyzeFunction(stmt, true));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // Imported names are never declared here, so a module could shadow any native.
+        imports = true;
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        impure();
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) stmt.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) stmt.initializer.accept(this);
+        declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,29 @@
+package com.emiphil.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the resolver works out for the interpreter: how many scopes out each local variable
+ * lives.
+ */
+class Resolutions {
+    final Map<Expr, Integer> locals = new HashMap<>();
+
+    void resolve(Expr expr, int depth) {
+        locals.put(expr, depth);
+    }
+
+    void unresolve(Expr expr) {
+        locals.remove(expr);
+    }
+
+    Integer depth(Expr expr) {
+        return locals.get(expr);
+    }
+
+    // Takes over the resolutions of a module that was resolved on its own.
+    void adopt(Resolutions other) {
+        locals.putAll(other.locals);
+    }
+}
@@ -1,18 +1,60 @@
 package com.emiphil.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // A local name, chained to the binding of the same name that it shadows.
+    private static final class Binding {
+        final String name;
+        final int scope;
+        final Binding shadowed;
+        boolean defined = false;
+
+        Binding(String name, int scope, Binding shadowed) {
+            this.name = name;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+    }
+
+    private final Resolutions resolutions;
+    // Every expression we resolve, so a caller can take the resolutions back again.
+    private final List<Expr> resolved;
+    // The innermost binding of every name in scope, so a lookup is one probe however deep we are.
+    private final Map<String, Binding> bindings = new HashMap<>();
+    // Bindings in declaration order, with the index where each scope's bindings begin.
+    private Binding[] declared = new Binding[16];
+    private int declaredCount = 0;
+    private int[] scopeStarts = new int[8];
+    private int scopeCount = 0;
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Resolutions resolutions) {
+        this(resolutions, null);
+    }
+
+    Resolver(Resolutions resolutions, List<Expr> resolved) {
+        this.resolutions = resolutions;
+        this.resolved = resolved;
+    }
+
+    // Picks up where the given resolver left off, for a function body that is resolved later.
+    private Resolver(Resolver resolver) {
+        this.resolutions = resolver.resolutions;
+        this.resolved = resolver.resolved;
+        for (int scope = 0, i = 0; scope < resolver.scopeCount; scope++) {
+            beginScope();
+            int end = scope + 1 < resolver.scopeCount ? resolver.scopeStarts[scope + 1] : resolver.declaredCount;
+            for (; i < end; i++) {
+                bind(resolver.declared[i].name).defined = resolver.declared[i].defined;
+            }
+        }
+        this.currentFunction = resolver.currentFunction;
+        this.currentClass = resolver.currentClass;
     }
 
     private enum FunctionType {
@@ -43,40 +85,75 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        if (scopeCount == scopeStarts.length) scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+        scopeStarts[scopeCount++] = declaredCount;
+    }
+
+    // Returns the number of slots the scope needed.
+    private int endScope() {
+        int start = scopeStarts[--scopeCount];
+        for (int i = declaredCount - 1; i >= start; i--) {
+            Binding binding = declared[i];
+            declared[i] = null;
+            if (binding.shadowed == null) {
+                bindings.remove(binding.name);
+            } else {
+                bindings.put(binding.name, binding.shadowed);
+            }
+        }
+
+        int slots = declaredCount - start;
+        declaredCount = start;
+        return slots;
     }
 
-    private void endScope() {
-        scopes.pop();
+    // The binding of name in the innermost scope, if it is declared there.
+    private Binding local(String name) {
+        Binding binding = bindings.get(name);
+        return binding != null && binding.scope == scopeCount - 1 ? binding : null;
+    }
+
+    private Binding bind(String name) {
+        Binding binding = new Binding(name, scopeCount - 1, bindings.get(name));
+        bindings.put(name, binding);
+        if (declaredCount == declared.length) declared = Arrays.copyOf(declared, declaredCount * 2);
+        declared[declaredCount++] = binding;
+        return binding;
     }
 
     private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+        if (scopeCount == 0) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        Binding binding = local(name.lexeme());
+        if (binding != null) {
             // the user is using var in a situation where they could have assigned
             // this is likely a bug
             Lox.error(name, "Already variable with this name in this scope.");
+            binding.defined = false;
+            return;
         }
-        scope.put(name.lexeme, false);
+        bind(name.lexeme());
     }
 
     private void define(Token name) {
-        if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        if (scopeCount == 0) return;
+        local(name.lexeme()).defined = true;
     }
 
     private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+        Binding binding = bindings.get(name.lexeme());
+        if (binding != null) {
+            resolutions.resolve(expr, scopeCount - 1 - binding.scope);
+            if (resolved != null) resolved.add(expr);
         }
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.body instanceof LazyBody) {
+            Resolver resolver = new Resolver(this);
+            if (((LazyBody) function.body).defer(() -> resolver.resolveFunction(function, type))) return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
@@ -86,7 +163,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             define(param);
         }
         resolve(function.body);
-        endScope();
+        function.slots = endScope();
         currentFunction = enclosingFunction;
     }
 
@@ -179,7 +256,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        Binding binding = scopeCount == 0 ? null : local(expr.name.lexeme());
+        if (binding != null && !binding.defined) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
@@ -191,7 +269,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.slots = endScope();
         return null;
     }
 
@@ -205,22 +283,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
-            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+            if (stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
                 Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
             }
 
             resolve(stmt.superclass);
 
             beginScope();
-            scopes.peek().put("super", true);
+            bind("super").defined = true;
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        bind("this").defined = true;
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
@@ -257,6 +335,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // A module's declarations become globals, so only the top level can ask for one.
+        if (scopeCount != 0) {
+            Lox.error(stmt.keyword, "Can't import inside a block or function.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -2,9 +2,19 @@ package com.emiphil.lox;
 
 public class RuntimeError extends RuntimeException {
     final Token token;
+    // The module file it happened in, or null for the main program. Taken from the innermost
+    // function or module it leaves.
+    String file = null;
+    private boolean located = false;
 
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
     }
+
+    void locate(String file) {
+        if (located) return;
+        this.file = file;
+        located = true;
+    }
 }
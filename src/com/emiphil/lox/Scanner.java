@@ -1,56 +1,104 @@
 package com.emiphil.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.emiphil.lox.TokenType.*;
 
 public class Scanner {
     private final String source;
+    private final SymbolTable symbols;
     private final List<Token> tokens = new ArrayList<>();
+    private int end;
     private int start = 0;
-    private int current = 0;
-    private int line = 1;
-
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
+    private int current;
+    private int line;
+
+    // When scanning one chunk for ParallelScanner, errors are held back so they can be replayed in order.
+    private final List<ScanError> errors;
+    // What the chunk ran out inside of, so extend() can carry on from there.
+    private enum Open { NONE, LINE_COMMENT, BLOCK_COMMENT, STRING }
+    private Open open = Open.NONE;
+    // How deeply nested the block comment we ran out inside was.
+    private int openLevel = 0;
+
+    static class ScanError {
+        final int line;
+        final String message;
+
+        ScanError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
     }
 
     Scanner(String source) {
+        this(source, new SymbolTable());
+    }
+
+    Scanner(String source, SymbolTable symbols) {
+        this(source, symbols, 0, source.length(), 1, null);
+    }
+
+    Scanner(String source, SymbolTable symbols, int from, int to, int line, List<ScanError> errors) {
         this.source = source;
+        this.symbols = symbols;
+        this.current = from;
+        this.end = to;
+        this.line = line;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
+        scanChunk();
+        tokens.add(new Token(EOF, source, current, 0, "", null, line));
+        return tokens;
+    }
+
+    List<Token> scanChunk() {
         while (!isAtEnd()) {
             // We are at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
         return tokens;
     }
 
+    boolean isOpen() {
+        return open != Open.NONE;
+    }
+
+    // Scans on up to to, first finishing the string or comment the chunk ran out inside of
+    // without going back over what was already scanned.
+    List<Token> extend(int to) {
+        end = to;
+        Open was = open;
+        open = Open.NONE;
+        switch (was) {
+            case LINE_COMMENT:
+                lineComment();
+                break;
+            case BLOCK_COMMENT:
+                blockComment(openLevel);
+                break;
+            case STRING:
+                // Drop the error; string() reports it again if the string still doesn't close.
+                errors.remove(errors.size() - 1);
+                string();
+                break;
+        }
+        return scanChunk();
+    }
+
+    private void error(int line, String message) {
+        if (errors != null) {
+            errors.add(new ScanError(line, message));
+        } else {
+            Lox.error(line, message);
+        }
+    }
+
     private void scanToken() {
         char c = advance();
         switch (c) {
@@ -98,10 +146,9 @@ public class Scanner {
                 break;
             case '/':
                 if (match('/')) {
-                    // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    lineComment();
                 } else if (match('*')) {
-                    blockComment();
+                    blockComment(0);
                 } else {
                     addToken(SLASH);
                 }
@@ -123,14 +170,19 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error(line, "Unexpected character.");
                     break;
                 }
         }
     }
 
-    private void blockComment() {
-        int level = 0;
+    private void lineComment() {
+        // A comment goes until the end of the line.
+        while (peek() != '\n' && !isAtEnd()) advance();
+        if (isAtEnd()) open = Open.LINE_COMMENT;
+    }
+
+    private void blockComment(int level) {
         while (!isAtEnd()) {
             if (isBlockCommentStart()) {
                 advance();
@@ -140,7 +192,7 @@ public class Scanner {
                 advance();
                 advance();
                 if (level == 0) {
-                    break;
+                    return;
                 }
                 level--;
             } else {
@@ -148,25 +200,32 @@ public class Scanner {
                 advance();
             }
         }
+
+        open = Open.BLOCK_COMMENT;
+        openLevel = level;
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        SymbolTable.Symbol symbol = symbols.intern(source, start, current);
+        tokens.add(new Token(symbol.type, source, start, current - start, symbol.text, null, line));
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        // Integers are accumulated as we go so the common case never needs a substring.
+        long value = source.charAt(start) - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the "."
             advance();
             while (isDigit(peek())) advance();
+        } else if (current - start <= 15) {
+            // Fifteen digits always fit in a double exactly.
+            addToken(NUMBER, (double) value);
+            return;
         }
 
         addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
@@ -179,7 +238,8 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            open = Open.STRING;
+            error(line, "Unterminated string.");
             return;
         }
 
@@ -187,7 +247,7 @@ public class Scanner {
         advance();
 
         // Trim the surrounding quotes
-        String value = source.substring(start + 1, current - 1);
+        String value = Interner.intern(source.substring(start + 1, current - 1));
         addToken(STRING, value);
     }
 
@@ -204,7 +264,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -231,7 +291,7 @@ public class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
@@ -243,7 +303,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        // The lexeme stays in the source until an error message needs it.
+        tokens.add(new Token(type, source, start, current - start, null, literal, line));
     }
 }
@@ -11,6 +11,7 @@ abstract class Stmt {
         R visitExpressionStmt(Expression stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
+        R visitImportStmt(Import stmt);
         R visitPrintStmt(Print stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
@@ -30,6 +31,8 @@ abstract class Stmt {
         }
 
         final List<Stmt> statements;
+        // Filled in after parsing, not by the parser.
+        int slots;
     }
 
     static class Class extends Stmt {
@@ -77,6 +80,8 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        // Filled in after parsing, not by the parser.
+        int slots;
     }
 
     static class If extends Stmt {
@@ -96,6 +101,21 @@ abstract class Stmt {
         final Stmt elseBranch;
     }
 
+    static class Import extends Stmt {
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token keyword;
+        final Token path;
+    }
+
     static class Print extends Stmt {
         Print(Expr expression) {
             this.expression = expression;
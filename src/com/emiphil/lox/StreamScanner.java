@@ -0,0 +1,265 @@
+package com.emiphil.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import static com.emiphil.lox.TokenType.*;
+
+/**
+ * A Scanner that pulls characters from a Reader through a sliding window instead of
+ * holding the whole source, and produces tokens only when the parser asks for them.
+ *
+ * Only the lexeme currently being scanned is kept in the window, so the tokens carry their
+ * own (interned where possible) lexemes rather than offsets into a source string.
+ */
+class StreamScanner implements TokenSource {
+    private final Reader reader;
+    private final SymbolTable symbols;
+    // Punctuation always spells the same, so each type keeps the first lexeme it was seen with.
+    private final String[] punctuation = new String[TokenType.values().length];
+    private char[] buffer = new char[1 << 16];
+    private int limit = 0;
+    // Stream offset of buffer[0].
+    private int base = 0;
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+    private boolean exhausted = false;
+
+    StreamScanner(Reader reader, SymbolTable symbols) {
+        this.reader = reader;
+        this.symbols = symbols;
+    }
+
+    @Override
+    public Token nextToken() {
+        while (!isAtEnd()) {
+            // We are at the beginning of the next lexeme.
+            start = current;
+            Token token = scanToken();
+            if (token != null) return token;
+        }
+
+        return new Token(EOF, null, base + current, 0, "", null, line);
+    }
+
+    private Token scanToken() {
+        char c = advance();
+        switch (c) {
+            case '(':
+                return token(LEFT_PAREN);
+            case ')':
+                return token(RIGHT_PAREN);
+            case '{':
+                return token(LEFT_BRACE);
+            case '}':
+                return token(RIGHT_BRACE);
+            case ',':
+                return token(COMMA);
+            case '.':
+                return token(DOT);
+            case '-':
+                return token(MINUS);
+            case '+':
+                return token(PLUS);
+            case ';':
+                return token(SEMICOLON);
+            case '*':
+                return token(STAR);
+            case '!':
+                return token(match('=') ? BANG_EQUAL : BANG);
+            case '=':
+                return token(match('=') ? EQUAL_EQUAL : EQUAL);
+            case '<':
+                return token(match('=') ? LESS_EQUAL : LESS);
+            case '>':
+                return token(match('=') ? GREATER_EQUAL : GREATER);
+            case '/':
+                if (match('/')) {
+                    // A comment goes until the end of the line.
+                    while (peek() != '\n' && !isAtEnd()) {
+                        discard();
+                        advance();
+                    }
+                    return null;
+                } else if (match('*')) {
+                    blockComment();
+                    return null;
+                }
+                return token(SLASH);
+            case ' ':
+            case '\r':
+            case '\t':
+                // Ignore whitespace
+                return null;
+            case '\n':
+                line++;
+                return null;
+            case '"':
+                return string();
+            default:
+                if (isDigit(c)) return number();
+                if (isAlpha(c)) return identifier();
+
+                Lox.error(line, "Unexpected character.");
+                return null;
+        }
+    }
+
+    private void blockComment() {
+        int level = 0;
+        while (!isAtEnd()) {
+            discard();
+            if (isBlockCommentStart()) {
+                advance();
+                advance();
+                level++;
+            } else if (isBlockCommentEnd()) {
+                advance();
+                advance();
+                if (level == 0) {
+                    break;
+                }
+                level--;
+            } else {
+                if (peek() == '\n') line++;
+                advance();
+            }
+        }
+    }
+
+    private Token identifier() {
+        while (isAlphaNumeric(peek())) advance();
+
+        SymbolTable.Symbol symbol = symbols.intern(buffer, start, current);
+        return new Token(symbol.type, null, base + start, current - start, symbol.text, null, line);
+    }
+
+    private Token number() {
+        long value = buffer[start] - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
+
+        boolean fraction = false;
+        // Look for a fractional part.
+        if (peek() == '.' && isDigit(peekNext())) {
+            // Consume the "."
+            advance();
+            while (isDigit(peek())) advance();
+            fraction = true;
+        }
+
+        String text = new String(buffer, start, current - start);
+        double literal = !fraction && text.length() <= 15 ? (double) value : Double.parseDouble(text);
+        return new Token(NUMBER, null, base + start, text.length(), text, literal, line);
+    }
+
+    private Token string() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') line++;
+            advance();
+        }
+
+        if (isAtEnd()) {
+            Lox.error(line, "Unterminated string.");
+            return null;
+        }
+
+        // The closing ".
+        advance();
+
+        // Trim the surrounding quotes
+        String value = Interner.intern(new String(buffer, start + 1, current - start - 2));
+        return new Token(STRING, null, base + start, current - start, null, value, line);
+    }
+
+    private Token token(TokenType type) {
+        String text = punctuation[type.ordinal()];
+        if (text == null) text = punctuation[type.ordinal()] = new String(buffer, start, current - start);
+        return new Token(type, null, base + start, current - start, text, null, line);
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (buffer[current] != expected) return false;
+        current++;
+        return true;
+    }
+
+    private char peek() {
+        if (isAtEnd()) return '\0';
+        return buffer[current];
+    }
+
+    private char peekNext() {
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return buffer[current + 1];
+    }
+
+    private boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '_';
+    }
+
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private boolean isBlockCommentStart() {
+        return peek() == '/' && peekNext() == '*';
+    }
+
+    private boolean isBlockCommentEnd() {
+        return peek() == '*' && peekNext() == '/';
+    }
+
+    private boolean isAtEnd() {
+        return current >= limit && !fill();
+    }
+
+    private char advance() {
+        return buffer[current++];
+    }
+
+    // Comments are never part of a lexeme, so let the window slide past them.
+    private void discard() {
+        start = current;
+    }
+
+    private boolean fill() {
+        if (exhausted) return false;
+
+        // Slide the lexeme in progress to the front of the window, growing it if the
+        // lexeme alone fills the whole thing.
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            base += start;
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                exhausted = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+}
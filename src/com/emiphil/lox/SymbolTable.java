@@ -0,0 +1,196 @@
+package com.emiphil.lox;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.emiphil.lox.TokenType.*;
+
+/**
+ * Interns identifier and keyword lexemes straight out of the source text.
+ *
+ * Lookups hash the characters in place, so a name that has been seen before costs no
+ * allocation at all and every token for it shares one String. New names go through the
+ * Interner, so that String is shared with every other table too.
+ */
+class SymbolTable {
+    static class Symbol {
+        final String text;
+        final TokenType type;
+        final int hash;
+
+        Symbol(String text, TokenType type, int hash) {
+            this.text = text;
+            this.type = type;
+            this.hash = hash;
+        }
+    }
+
+    private Symbol[] symbols = new Symbol[256];
+    private int count = 0;
+
+    // A table that starts out knowing every name other does, and can be scanned into on
+    // another thread while other is used.
+    SymbolTable(SymbolTable other) {
+        symbols = other.symbols.clone();
+        count = other.count;
+    }
+
+    SymbolTable() {
+        keyword("and", AND);
+        keyword("class", CLASS);
+        keyword("else", ELSE);
+        keyword("false", FALSE);
+        keyword("for", FOR);
+        keyword("fun", FUN);
+        keyword("if", IF);
+        keyword("import", IMPORT);
+        keyword("nil", NIL);
+        keyword("or", OR);
+        keyword("print", PRINT);
+        keyword("return", RETURN);
+        keyword("super", SUPER);
+        keyword("this", THIS);
+        keyword("true", TRUE);
+        keyword("var", VAR);
+        keyword("while", WHILE);
+    }
+
+    private void keyword(String text, TokenType type) {
+        insert(new Symbol(Interner.intern(text), type, hash(text, 0, text.length())));
+    }
+
+    Symbol intern(String source, int start, int end) {
+        int hash = hash(source, start, end);
+        int length = end - start;
+        int mask = symbols.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = symbols[i];
+            if (symbol == null) break;
+            if (symbol.hash == hash && symbol.text.length() == length &&
+                    source.regionMatches(start, symbol.text, 0, length)) {
+                return symbol;
+            }
+        }
+
+        Symbol symbol = new Symbol(Interner.intern(source.substring(start, end)), IDENTIFIER, hash);
+        insert(symbol);
+        return symbol;
+    }
+
+    Symbol intern(char[] source, int start, int end) {
+        int hash = hash(source, start, end);
+        int length = end - start;
+        int mask = symbols.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = symbols[i];
+            if (symbol == null) break;
+            if (symbol.hash == hash && matches(symbol.text, source, start, length)) {
+                return symbol;
+            }
+        }
+
+        Symbol symbol = new Symbol(Interner.intern(new String(source, start, length)), IDENTIFIER, hash);
+        insert(symbol);
+        return symbol;
+    }
+
+    Symbol intern(byte[] source, int start, int end) {
+        // Only ever handed ASCII, so every byte is one char.
+        int hash = hash(source, start, end);
+        int length = end - start;
+        int mask = symbols.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = symbols[i];
+            if (symbol == null) break;
+            if (symbol.hash == hash && matches(symbol.text, source, start, length)) {
+                return symbol;
+            }
+        }
+
+        Symbol symbol = new Symbol(Interner.intern(new String(source, start, length, StandardCharsets.ISO_8859_1)), IDENTIFIER, hash);
+        insert(symbol);
+        return symbol;
+    }
+
+    // Adds the names other has picked up that this table doesn't know yet.
+    void addAll(SymbolTable other) {
+        for (Symbol symbol : other.symbols) {
+            if (symbol != null && !contains(symbol)) insert(symbol);
+        }
+    }
+
+    private boolean contains(Symbol symbol) {
+        int mask = symbols.length - 1;
+        for (int i = symbol.hash & mask; symbols[i] != null; i = (i + 1) & mask) {
+            if (symbols[i].hash == symbol.hash && symbols[i].text.equals(symbol.text)) return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private void insert(Symbol symbol) {
+        // Keep the load factor under one half so probe chains stay short.
+        if ((count + 1) * 2 > symbols.length) grow();
+
+        int mask = symbols.length - 1;
+        int i = symbol.hash & mask;
+        while (symbols[i] != null) i = (i + 1) & mask;
+        symbols[i] = symbol;
+        count++;
+    }
+
+    private void grow() {
+        Symbol[] old = symbols;
+        symbols = new Symbol[old.length * 2];
+        count = 0;
+        for (Symbol symbol : old) {
+            if (symbol != null) insert(symbol);
+        }
+    }
+
+    private static int hash(String source, int start, int end) {
+        // Same as String.hashCode, spread so the low bits pick good buckets.
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + source.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(char[] source, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + source[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(byte[] source, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + source[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String text, byte[] source, int start, int length) {
+        if (text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String text, char[] source, int start, int length) {
+        if (text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+}
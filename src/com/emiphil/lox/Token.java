@@ -2,18 +2,42 @@ package com.emiphil.lox;
 
 public class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
+    // Where the lexeme lives in the source, so we only copy it out when someone asks.
+    final int offset;
+    final int length;
+    private final CharSequence source;
+    private String lexeme;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, null, -1, lexeme.length(), lexeme, literal, line);
+    }
+
+    Token(TokenType type, CharSequence source, int offset, int length, String lexeme, Object literal, int line) {
         this.type = type;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
     }
 
+    // The same token, lines further down, for code that has moved.
+    Token movedBy(int lines) {
+        return new Token(type, source, offset, length, lexeme, literal, line + lines);
+    }
+
+    String lexeme() {
+        if (lexeme == null) {
+            // Streamed tokens have no source to point into; only string literals arrive without a lexeme.
+            lexeme = source != null ? source.subSequence(offset, offset + length).toString() : "\"" + literal + "\"";
+        }
+        return lexeme;
+    }
+
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
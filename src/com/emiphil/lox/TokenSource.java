@@ -0,0 +1,8 @@
+package com.emiphil.lox;
+
+/**
+ * Hands tokens to the parser one at a time. Once EOF has been returned the parser never asks again.
+ */
+interface TokenSource {
+    Token nextToken();
+}
@@ -19,7 +19,7 @@ public class GenerateAst {
                 "Statement: Stmt statement",
                 "Assign   : Token name, Expr value",
                 "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
+                "Call     : Expr callee, Token paren, List<Expr> arguments; Intrinsic intrinsic, JavaInterop.Site site",
                 "Get      : Expr object, Token name",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
@@ -32,11 +32,12 @@ public class GenerateAst {
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements; int slots",
                 "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body; int slots",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "Import     : Token keyword, Token path",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
                 "Var        : Token name, Expr initializer",
@@ -92,9 +93,14 @@ public class GenerateAst {
         writer.println();
     }
 
+    // Fields after a ';' aren't part of the constructor or final; the resolver or the interpreter
+    // fills them in.
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldSpec) {
+        String fieldList = fieldSpec.split(";")[0].trim();
+        String[] mutable = fieldSpec.contains(";") ? fieldSpec.split(";")[1].trim().split(", ") : new String[0];
+
         writer.println(indent(1) + "static class " + className + " extends " + baseName + " {");
 
         // Constructor
@@ -121,6 +127,12 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println(indent(2) + "final " + field + ";");
         }
+        if (mutable.length > 0) {
+            writer.println(indent(2) + "// Filled in after parsing, not by the parser.");
+        }
+        for (String field : mutable) {
+            writer.println(indent(2) + field + ";");
+        }
 
         writer.println(indent(1) + "}");
         writer.println();